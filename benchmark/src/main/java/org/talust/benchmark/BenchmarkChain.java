@@ -0,0 +1,73 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017-2018 talust.org talust.io
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ */
+
+package org.talust.benchmark;
+
+import org.talust.common.tools.Configure;
+import org.talust.storage.BlockStorage;
+import org.talust.storage.ChainDatabase;
+import org.talust.storage.ChainStateStorage;
+import org.talust.storage.UtxoCache;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+
+/**
+ * 在临时目录中打开链存储,每个基准测试使用独立的数据目录,结束后删除
+ */
+public final class BenchmarkChain {
+
+    private BenchmarkChain() {
+    }
+
+    public static File open(StorageProfile profile) throws IOException {
+        File dir = Files.createTempDirectory("talust-bench").toFile();
+        profile.apply();
+        Configure.DATA_CHAIN = new File(dir, "chain").getAbsolutePath();
+        Configure.DATA_BLOCK = new File(dir, "block").getAbsolutePath();
+        BlockStorage.get().init();
+        ChainStateStorage.get().init();
+        UtxoCache.get().discard();
+        return dir;
+    }
+
+    public static void close(File dir) throws IOException {
+        UtxoCache.get().discard();
+        BlockStorage.get().close();
+        ChainDatabase.get().close();
+        delete(dir);
+    }
+
+    private static void delete(File file) {
+        File[] files = file.listFiles();
+        if (files != null) {
+            for (File f : files) {
+                delete(f);
+            }
+        }
+        file.delete();
+    }
+}
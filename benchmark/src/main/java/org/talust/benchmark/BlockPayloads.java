@@ -0,0 +1,109 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017-2018 talust.org talust.io
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ */
+
+package org.talust.benchmark;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * 基准测试写入的区块内容,通过-Dtalust.bench.blocks指定BlockStorage.export导出的文件时使用真实区块,
+ * 否则按指定大小生成结构与真实区块相近的数据:哈希、签名等随机字段与重复出现的地址、字段标签交替
+ */
+public final class BlockPayloads {
+    public static final String BLOCKS_FILE = System.getProperty("talust.bench.blocks");
+
+    private BlockPayloads() {
+    }
+
+    /**
+     * 加载区块内容
+     *
+     * @param size 生成区块的大小,使用真实区块时忽略
+     * @param count 区块数
+     * @return
+     * @throws IOException
+     */
+    public static List<byte[]> load(int size, int count) throws IOException {
+        if (BLOCKS_FILE != null) {
+            return read(BLOCKS_FILE, count);
+        }
+        return generate(size, count);
+    }
+
+    private static List<byte[]> read(String file, int count) throws IOException {
+        List<byte[]> blocks = new ArrayList<>(count);
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            while (blocks.size() < count) {
+                in.readInt();//高度
+                byte[] content = new byte[in.readInt()];
+                in.readFully(content);
+                blocks.add(content);
+            }
+        } catch (EOFException e) {
+            //导出的区块数少于需要的区块数
+        }
+        if (blocks.isEmpty()) {
+            throw new IOException("区块文件中没有区块:" + file);
+        }
+        return blocks;
+    }
+
+    private static List<byte[]> generate(int size, int count) {
+        Random random = new Random(size);
+        byte[][] addresses = new byte[64][21];
+        for (byte[] address : addresses) {
+            random.nextBytes(address);
+        }
+        List<byte[]> blocks = new ArrayList<>(count);
+        for (int n = 0; n < count; n++) {
+            byte[] block = new byte[size];
+            int pos = 0;
+            while (pos < size) {
+                byte[] random32 = new byte[32];
+                random.nextBytes(random32);
+                pos = copy(new byte[]{0x0A, 0x20}, block, pos);
+                pos = copy(random32, block, pos);
+                pos = copy(new byte[]{0x12, 0x15}, block, pos);
+                pos = copy(addresses[random.nextInt(addresses.length)], block, pos);
+                pos = copy(new byte[]{0x18, (byte) random.nextInt(128), 0x20, 0x01}, block, pos);
+            }
+            blocks.add(block);
+        }
+        return blocks;
+    }
+
+    private static int copy(byte[] src, byte[] dest, int pos) {
+        int length = Math.min(src.length, dest.length - pos);
+        System.arraycopy(src, 0, dest, pos, length);
+        return pos + length;
+    }
+}
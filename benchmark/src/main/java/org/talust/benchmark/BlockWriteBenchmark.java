@@ -0,0 +1,108 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017-2018 talust.org talust.io
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ */
+
+package org.talust.benchmark;
+
+import org.openjdk.jmh.annotations.*;
+import org.talust.storage.BlockCommit;
+import org.talust.storage.BlockStorage;
+import org.talust.storage.ChainDatabase;
+import org.talust.storage.UtxoCache;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 区块写入的基准测试,按BlockArrivedHandler.saveBlock的顺序写入区块内容、区块头、最新区块hash、
+ * 高度索引、撤销记录以及区块内交易输出的新增与花费,每个区块一次同步提交
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class BlockWriteBenchmark {
+    @Param({"DEFAULT", "LOW_MEMORY", "NO_COMPRESS", "MEMORY"})
+    public StorageProfile profile;
+
+    @Param({"2048", "32768", "262144"})
+    public int blockSize;
+
+    @Param({"20"})
+    public int outputs;//每个区块新增的交易输出数,同时花费上一个区块的交易输出
+
+    private File dir;
+    private List<byte[]> blocks;
+    private ChainDatabase chainDatabase;
+    private BlockStorage blockStorage;
+    private UtxoCache utxoCache;
+    private byte[] address = new byte[21];
+    private byte[] output = new byte[64];
+    private int height;
+    private long tranNumber;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        dir = BenchmarkChain.open(profile);
+        blocks = BlockPayloads.load(blockSize, 256);
+        chainDatabase = ChainDatabase.get();
+        blockStorage = BlockStorage.get();
+        utxoCache = UtxoCache.get();
+        Arrays.fill(output, (byte) 7);
+        height = 0;
+        tranNumber = 101;
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        BenchmarkChain.close(dir);
+    }
+
+    @Benchmark
+    public int saveBlock() {
+        byte[] block = blocks.get(height % blocks.size());
+        byte[] hash = ByteBuffer.allocate(32).putInt(height).array();
+        try (BlockCommit commit = chainDatabase.newCommit()) {
+            commit.recordUndo(height);
+            blockStorage.put(commit, hash, block);
+            blockStorage.putHeader(commit, hash, Arrays.copyOf(block, Math.min(block.length, 160)));
+            blockStorage.setNowBlockHash(commit, hash);
+            blockStorage.putHeightHash(commit, height, hash);
+            for (int item = 0; item < outputs; item++) {
+                if (height > 0) {
+                    utxoCache.spend(commit, tranNumber - outputs, 0, address);
+                }
+                utxoCache.add(commit, tranNumber, 0, address, output);
+                tranNumber++;
+            }
+            commit.commit();
+        }
+        return height++;
+    }
+}
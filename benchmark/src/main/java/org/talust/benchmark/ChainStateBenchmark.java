@@ -0,0 +1,166 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017-2018 talust.org talust.io
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ */
+
+package org.talust.benchmark;
+
+import org.openjdk.jmh.annotations.*;
+import org.talust.storage.BlockCommit;
+import org.talust.storage.ChainColumn;
+import org.talust.storage.ChainDatabase;
+import org.talust.storage.ChainStateStorage;
+import org.talust.storage.UtxoCache;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 链状态的基准测试,按交易号-输出项读写交易输出,以及余额的先读后写与合并写入
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class ChainStateBenchmark {
+    private static final long FIRST_TRAN_NUMBER = 101;
+
+    @Param({"DEFAULT", "LOW_MEMORY", "MEMORY"})
+    public StorageProfile profile;
+
+    @Param({"1000000"})
+    public int utxoCount;
+
+    @Param({"64"})
+    public int outputSize;
+
+    @Param({"10000"})
+    public int addressCount;
+
+    private File dir;
+    private ChainDatabase chainDatabase;
+    private ChainStateStorage chainStateStorage;
+    private UtxoCache utxoCache;
+    private byte[] output;
+    private byte[][] addresses;
+    private long nextTranNumber;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        dir = BenchmarkChain.open(profile);
+        chainDatabase = ChainDatabase.get();
+        chainStateStorage = ChainStateStorage.get();
+        utxoCache = UtxoCache.get();
+        output = new byte[outputSize];
+        ThreadLocalRandom.current().nextBytes(output);
+        addresses = new byte[addressCount][];
+        for (int idx = 0; idx < addressCount; idx++) {
+            addresses[idx] = ("address-" + idx).getBytes();
+        }
+        for (long start = FIRST_TRAN_NUMBER; start < FIRST_TRAN_NUMBER + utxoCount; start += 10000) {
+            try (BlockCommit commit = chainDatabase.newCommit()) {
+                for (long tranNumber = start; tranNumber < Math.min(start + 10000, FIRST_TRAN_NUMBER + utxoCount); tranNumber++) {
+                    commit.put(ChainColumn.UTXO, ChainStateStorage.utxoKey(tranNumber, 0), output);
+                }
+                commit.commit();
+            }
+        }
+        nextTranNumber = FIRST_TRAN_NUMBER + utxoCount;
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        BenchmarkChain.close(dir);
+    }
+
+    private long randomTranNumber() {
+        return FIRST_TRAN_NUMBER + ThreadLocalRandom.current().nextInt(utxoCount);
+    }
+
+    private byte[] randomAddress() {
+        return addresses[ThreadLocalRandom.current().nextInt(addressCount)];
+    }
+
+    /**
+     * 不经过缓存直接读取交易输出
+     */
+    @Benchmark
+    public byte[] utxoGet() {
+        return chainStateStorage.get(ChainStateStorage.utxoKey(randomTranNumber(), 0));
+    }
+
+    /**
+     * 经过交易输出缓存读取
+     */
+    @Benchmark
+    public byte[] utxoCacheGet() {
+        return utxoCache.get(randomTranNumber(), 0);
+    }
+
+    /**
+     * 一次提交写入100个新的交易输出,与一个区块的交易输出写入量相当
+     */
+    @Benchmark
+    @OperationsPerInvocation(100)
+    public void utxoPut() {
+        try (BlockCommit commit = chainDatabase.newCommit()) {
+            for (int idx = 0; idx < 100; idx++) {
+                commit.put(ChainColumn.UTXO, ChainStateStorage.utxoKey(nextTranNumber++, 0), output);
+            }
+            commit.commit();
+        }
+    }
+
+    /**
+     * 先读取余额再写入新的余额
+     */
+    @Benchmark
+    public void balanceReadModifyWrite() {
+        byte[] address = randomAddress();
+        byte[] bytes = chainDatabase.get(ChainColumn.BALANCES, address);
+        long amount = bytes != null ? ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN).getLong() : 0;
+        chainDatabase.put(ChainColumn.BALANCES, address, encode(amount + 1));
+    }
+
+    /**
+     * 直接写入余额增量,读取时合并
+     */
+    @Benchmark
+    public void balanceMerge() {
+        chainDatabase.merge(ChainColumn.BALANCES, randomAddress(), encode(1));
+    }
+
+    @Benchmark
+    public long balanceGet() {
+        return chainStateStorage.getAddressAmount(randomAddress());
+    }
+
+    private static byte[] encode(long amount) {
+        return ByteBuffer.allocate(8).order(ByteOrder.LITTLE_ENDIAN).putLong(amount).array();
+    }
+}
@@ -0,0 +1,119 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017-2018 talust.org talust.io
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ */
+
+package org.talust.benchmark;
+
+import org.openjdk.jmh.annotations.*;
+import org.talust.storage.BlockCommit;
+import org.talust.storage.BlockCursor;
+import org.talust.storage.BlockStorage;
+import org.talust.storage.ChainDatabase;
+import org.talust.storage.StoredBlock;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 按高度查找区块的基准测试,包括高度到hash的查找、按高度读取区块内容以及按高度顺序遍历
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class HeightLookupBenchmark {
+    private static final int SCAN_LENGTH = 64;
+
+    @Param({"DEFAULT", "LOW_MEMORY", "NO_COMPRESS", "MEMORY"})
+    public StorageProfile profile;
+
+    @Param({"2048", "32768"})
+    public int blockSize;
+
+    @Param({"100000"})
+    public int blockCount;
+
+    private File dir;
+    private BlockStorage blockStorage;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        dir = BenchmarkChain.open(profile);
+        blockStorage = BlockStorage.get();
+        List<byte[]> blocks = BlockPayloads.load(blockSize, 256);
+        ChainDatabase chainDatabase = ChainDatabase.get();
+        for (int start = 0; start < blockCount; start += 1000) {
+            try (BlockCommit commit = chainDatabase.newCommit()) {
+                for (int height = start; height < Math.min(start + 1000, blockCount); height++) {
+                    byte[] hash = hash(height);
+                    blockStorage.put(commit, hash, blocks.get(height % blocks.size()));
+                    blockStorage.putHeightHash(commit, height, hash);
+                }
+                commit.commit();
+            }
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        BenchmarkChain.close(dir);
+    }
+
+    private static byte[] hash(int height) {
+        return ByteBuffer.allocate(32).putInt(height).array();
+    }
+
+    private int randomHeight() {
+        return ThreadLocalRandom.current().nextInt(blockCount);
+    }
+
+    @Benchmark
+    public byte[] hashByHeight() {
+        return blockStorage.getHashByHeight(randomHeight());
+    }
+
+    @Benchmark
+    public ByteBuffer blockByHeight() {
+        return blockStorage.getBuffer(blockStorage.getHashByHeight(randomHeight()));
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(SCAN_LENGTH)
+    public int scanByHeight() {
+        int from = ThreadLocalRandom.current().nextInt(Math.max(1, blockCount - SCAN_LENGTH));
+        int length = 0;
+        try (BlockCursor cursor = blockStorage.scan(from, from + SCAN_LENGTH - 1)) {
+            while (cursor.hasNext()) {
+                StoredBlock block = cursor.next();
+                length += block.getStored() != null ? block.getStored().length : 0;
+            }
+        }
+        return length;
+    }
+}
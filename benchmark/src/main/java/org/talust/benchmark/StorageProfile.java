@@ -0,0 +1,62 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017-2018 talust.org talust.io
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ */
+
+package org.talust.benchmark;
+
+import org.talust.common.tools.Configure;
+import org.talust.storage.ChainDatabase;
+
+/**
+ * 基准测试使用的存储配置,分别对比默认配置、小内存、不压缩区块以及内存引擎
+ */
+public enum StorageProfile {
+    DEFAULT(ChainDatabase.ENGINE_ROCKSDB, 256L * 1024 * 1024, 128L * 1024 * 1024, true),
+    LOW_MEMORY(ChainDatabase.ENGINE_ROCKSDB, 16L * 1024 * 1024, 16L * 1024 * 1024, true),
+    NO_COMPRESS(ChainDatabase.ENGINE_ROCKSDB, 256L * 1024 * 1024, 128L * 1024 * 1024, false),
+    MEMORY(ChainDatabase.ENGINE_MEMORY, 256L * 1024 * 1024, 128L * 1024 * 1024, true),
+    ;
+
+    private String engine;
+    private long blockCacheSize;
+    private long writeBufferSize;
+    private boolean blockCompress;
+
+    StorageProfile(String engine, long blockCacheSize, long writeBufferSize, boolean blockCompress) {
+        this.engine = engine;
+        this.blockCacheSize = blockCacheSize;
+        this.writeBufferSize = writeBufferSize;
+        this.blockCompress = blockCompress;
+    }
+
+    /**
+     * 写入配置,需在打开存储之前调用
+     */
+    public void apply() {
+        Configure.STORAGE_ENGINE = engine;
+        Configure.STORAGE_BLOCK_CACHE_SIZE = blockCacheSize;
+        Configure.STORAGE_WRITE_BUFFER_SIZE = writeBufferSize;
+        Configure.BLOCK_COMPRESS = blockCompress;
+    }
+}
@@ -38,6 +38,8 @@ import org.talust.network.MessageValidator;
 import org.talust.network.model.MyChannel;
 import org.talust.network.netty.ChannelContain;
 import org.talust.network.netty.SynRequest;
+import org.talust.storage.BlockCodec;
+import org.talust.storage.BlockDecodeException;
 
 import java.util.*;
 import java.util.concurrent.Future;
@@ -174,6 +176,10 @@ public class SynBlock {
                         }
                     }
                     if (needGain) {
+                        if (ac.isEmpty()) {
+                            log.warn("没有可以提供区块高度:{} 的节点,停止本次同步", idx);
+                            return;
+                        }
                         int selectChannel = rand.nextInt(ac.size());//所选中的块所在的channel进行获取块,选中的channel是随机选择的
                         String scId = ac.get(selectChannel);
                         while (true) {
@@ -193,6 +199,7 @@ public class SynBlock {
                             Message nodeMessage = new Message();
                             nodeMessage.setType(MessageType.BLOCK_REQ.getType());
                             nodeMessage.setContent(Integer.toString(selectBlockHeight).getBytes());//所请求的块的高度
+                            nodeMessage.setCodec((int) BlockCodec.ZSTD);//可以接受压缩后的区块
                             log.info("向网络节点:{} 请求区块高度为:{}的区块...", selectIp, selectBlockHeight);
                             MessageChannel message = SynRequest.get().synReq(nodeMessage, selectIp);
                             return message;
@@ -203,8 +210,21 @@ public class SynBlock {
                 for (Future<MessageChannel> result : results) {
                     try {
                         MessageChannel message = result.get();
-                        if (message != null) {
-                            byte[] content = message.getMessage().getContent();
+                        if (message != null && message.getMessage().getType() == MessageType.BLOCK_PRUNED.getType()) {
+                            //远端已裁剪该区块内容,之后不再向其请求
+                            log.info("远端ip:{} 已裁剪区块:{},改向其他节点请求", message.getFromIp(), new String(message.getMessage().getContent()));
+                            ac.remove(message.getFromIp());
+                        } else if (message != null && message.getMessage().getType() == MessageType.BLOCK_RESP.getType()) {
+                            byte[] content;
+                            try {
+                                content = BlockCodec.get().decode(message.getMessage().getContent());
+                            } catch (BlockDecodeException e) {//远端返回的区块无法解码,之后不再向其请求
+                                log.warn("远端ip:{} 返回的区块无法解码:{}", message.getFromIp(), e.getMessage());
+                                ac.remove(message.getFromIp());
+                                continue;
+                            }
+                            message.getMessage().setContent(content);//后续校验与存储使用原始区块内容
+                            message.getMessage().setCodec(null);
                             Block block = SerializationUtil.deserializer(content, Block.class);//远端返回来的区块
                             blocks.add(block);
                             mapHeightData.put(block.getHead().getHeight(), message);
@@ -213,6 +233,7 @@ public class SynBlock {
                         e.printStackTrace();
                     }
                 }
+                results.clear();//已处理的请求,重试时不再重复处理
             }
             Collections.sort(blocks, (Block o1, Block o2) -> {//对本次返回的区块进行排序
                 int i = o1.getHead().getHeight() - o2.getHead().getHeight();
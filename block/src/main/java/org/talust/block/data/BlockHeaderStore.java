@@ -0,0 +1,173 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017-2018 talust.org talust.io
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ */
+
+package org.talust.block.data;
+
+import lombok.extern.slf4j.Slf4j;
+import org.talust.block.model.Block;
+import org.talust.block.model.BlockHead;
+import org.talust.common.crypto.Hex;
+import org.talust.common.tools.CacheManager;
+import org.talust.common.tools.SerializationUtil;
+import org.talust.storage.BlockCommit;
+import org.talust.storage.BlockCursor;
+import org.talust.storage.BlockStorage;
+import org.talust.storage.ChainStateStorage;
+import org.talust.storage.StoredBlock;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+//区块头存储,区块头单独存储与缓存,校验区块时只需读取区块头,不需要反序列化整个区块
+@Slf4j
+public class BlockHeaderStore {
+    private static BlockHeaderStore instance = new BlockHeaderStore();
+
+    private BlockHeaderStore() {
+    }
+
+    public static BlockHeaderStore get() {
+        return instance;
+    }
+
+    private int maxCacheCount = 4096;//最多缓存的区块头数量
+    private BlockStorage blockStorage = BlockStorage.get();
+    private Map<String, BlockHead> cache = new LinkedHashMap<String, BlockHead>(256, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, BlockHead> eldest) {
+            return size() > maxCacheCount;
+        }
+    };
+
+    /**
+     * 保存区块头,随区块一起提交,提交成功后再调用cacheHeader放入缓存
+     *
+     * @param commit
+     * @param hash
+     * @param head
+     */
+    public void putHeader(BlockCommit commit, byte[] hash, BlockHead head) {
+        blockStorage.putHeader(commit, hash, SerializationUtil.serializer(head));
+    }
+
+    /**
+     * 根据区块hash获取区块头
+     *
+     * @param hash
+     * @return
+     */
+    public BlockHead getHeader(byte[] hash) {
+        if (hash == null) {
+            return null;
+        }
+        String key = Hex.encode(hash);
+        synchronized (cache) {
+            BlockHead head = cache.get(key);
+            if (head != null) {
+                return head;
+            }
+        }
+        BlockHead head;
+        byte[] headBytes = blockStorage.getHeader(hash);
+        if (headBytes != null) {
+            head = SerializationUtil.deserializer(headBytes, BlockHead.class);
+        } else {//区块头单独存储之前保存的区块,从区块内容中取出区块头并补存
+            byte[] blockBytes = blockStorage.get(hash);
+            if (blockBytes == null) {
+                return null;
+            }
+            head = SerializationUtil.deserializer(blockBytes, Block.class).getHead();
+            blockStorage.putHeader(hash, SerializationUtil.serializer(head));
+        }
+        cacheHeader(hash, head);
+        return head;
+    }
+
+    /**
+     * 根据区块高度获取区块头
+     *
+     * @param height
+     * @return
+     */
+    public BlockHead getHeaderByHeight(int height) {
+        return getHeader(blockStorage.getHashByHeight(height));
+    }
+
+    /**
+     * 按高度重建[fromHeight,toHeight]之间区块的区块头索引
+     *
+     * @param fromHeight
+     * @param toHeight
+     * @return 重建的区块头数
+     */
+    public int reindex(int fromHeight, int toHeight) {
+        int count = 0;
+        try (BlockCursor cursor = blockStorage.scan(fromHeight, toHeight)) {
+            while (cursor.hasNext()) {
+                StoredBlock block = cursor.next();
+                if (block.getContent() == null) {
+                    continue;
+                }
+                BlockHead head = SerializationUtil.deserializer(block.getContent(), Block.class).getHead();
+                blockStorage.putHeader(block.getHash(), SerializationUtil.serializer(head));
+                count++;
+            }
+        }
+        log.info("重建区块高度:{} 至 {} 的区块头索引,共:{} 个", fromHeight, toHeight, count);
+        return count;
+    }
+
+    /**
+     * 回滚链数据到指定高度,同时清除区块头缓存并重置当前区块时间,被回滚的区块头已从存储中删除
+     *
+     * @param height 回滚后的最新区块高度
+     * @return 回滚的区块数
+     */
+    public int rollbackTo(int height) {
+        int count = ChainStateStorage.get().rollbackTo(height);
+        if (count > 0) {
+            synchronized (cache) {
+                cache.clear();
+            }
+            BlockHead head = getHeaderByHeight(height);
+            if (head != null && head.getTime() != null) {
+                CacheManager.get().setCurrentBlockTime(head.getTime());
+            }
+        }
+        return count;
+    }
+
+    /**
+     * 将已经存储的区块头放入缓存
+     *
+     * @param hash
+     * @param head
+     */
+    public void cacheHeader(byte[] hash, BlockHead head) {
+        synchronized (cache) {
+            cache.put(Hex.encode(hash), head);
+        }
+    }
+}
@@ -54,10 +54,10 @@ public class DataContainer {
      */
     public void addRecord(byte[] record) {
         try {
-            lock.readLock().lock();
+            lock.writeLock().lock();
             datas.add(record);
         } finally {
-            lock.readLock().unlock();
+            lock.writeLock().unlock();
         }
     }
 
@@ -28,7 +28,8 @@ package org.talust.client;
 import lombok.extern.slf4j.Slf4j;
 import org.talust.account.MiningAddress;
 import org.talust.block.SynBlock;
-import org.talust.block.model.Block;
+import org.talust.block.data.BlockHeaderStore;
+import org.talust.block.model.BlockHead;
 import org.talust.client.handler.*;
 import org.talust.client.validator.BlockArrivedValidator;
 import org.talust.client.validator.NodeExitValidator;
@@ -36,6 +37,7 @@ import org.talust.client.validator.NodeJoinValidator;
 import org.talust.client.validator.TransactionValidator;
 import org.talust.common.model.MessageType;
 import org.talust.common.tools.CacheManager;
+import org.talust.common.tools.Configure;
 import org.talust.common.tools.Constant;
 import org.talust.common.tools.SerializationUtil;
 import org.talust.consensus.ConsensusService;
@@ -52,7 +54,10 @@ import org.talust.network.netty.PeersManager;
 import org.talust.network.netty.queue.MessageQueueHolder;
 import org.talust.storage.AccountStorage;
 import org.talust.storage.BlockStorage;
+import org.talust.storage.ChainFollower;
+import org.talust.storage.ChainSnapshot;
 import org.talust.storage.ChainStateStorage;
+import org.talust.storage.ChainViews;
 import org.talust.storage.TransactionStorage;
 
 import java.util.ArrayList;
@@ -118,6 +123,7 @@ public class BlockChainServer {
         addHandler(MessageType.BLOCK_REQ, new BlockDataReqHandler());
         addHandler(MessageType.BLOCK_RESP, new BlockDataRespHandler());
         addHandler(MessageType.ERROR_MESSAGE, new ErrorMessageHandler());
+        addHandler(MessageType.BLOCK_PRUNED, new ErrorMessageHandler());
         addHandler(MessageType.NODE_JOIN, new NodeJoinHandler());
         addHandler(MessageType.NODE_JOIN_RESP, new NodeJoinRespHandler());
         addHandler(MessageType.NODE_EXIT, new NodeExitHandler());
@@ -142,18 +148,25 @@ public class BlockChainServer {
      */
     public void initStorage() throws Exception {
         log.info("初始化存储...");
+        if (Configure.SNAPSHOT_IMPORT != null) {//从快照启动,只需同步快照之后的区块
+            ChainSnapshot.get().importSnapshot(Configure.SNAPSHOT_IMPORT);
+        }
         blockStorage.init();
         chainStateStorage.init();
         transactionStorage.init();
+        if (Configure.FOLLOWER) {//只读跟随,只提供查询接口,不启动网络与共识
+            ChainFollower.get().start();
+            return;
+        }
         accountStorage.init();
         PeersManager.get().initPeers();
 
         log.info("初始化缓存...");
-             byte[] nowBlockHash = blockStorage.get(Constant.NOW_BLOCK_HASH);
+        byte[] nowBlockHash = blockStorage.getNowBlockHash();
 
         if (nowBlockHash != null) {
-            byte[] nowBlock = blockStorage.get(nowBlockHash);
-            byte[] addrBytes = blockStorage.get(Constant.MINING_ADDRESS);
+            BlockHead nowHead = BlockHeaderStore.get().getHeader(nowBlockHash);
+            byte[] addrBytes = chainStateStorage.getAccount(Constant.MINING_ADDRESS);
             List<String>  miningAddress = new ArrayList<>();
             if(addrBytes!=null){
                 MiningAddress miningAddres = SerializationUtil.deserializer(addrBytes, MiningAddress.class);
@@ -162,12 +175,12 @@ public class BlockChainServer {
                 }
                 CacheManager.get().put(new String(Constant.MINING_ADDRESS), miningAddress);
             }
-            if (nowBlock != null) {
-                Block block = SerializationUtil.deserializer(nowBlock, Block.class);
+            if (nowHead != null) {
                 //将区块的最新打包时间写入缓存
-                CacheManager.get().setCurrentBlockTime(block.getHead().getTime());
-                CacheManager.get().setCurrentBlockHeight(block.getHead().getHeight());
+                CacheManager.get().setCurrentBlockTime(nowHead.getTime());
+                CacheManager.get().setCurrentBlockHeight(nowHead.getHeight());
                 CacheManager.get().setCurrentBlockHash(nowBlockHash);
+                ChainViews.get().publish(nowHead.getHeight(), nowBlockHash);
             }
         }
         BlockChainServer.get().start();
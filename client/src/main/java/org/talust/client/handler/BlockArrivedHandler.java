@@ -26,6 +26,7 @@
 package org.talust.client.handler;
 
 import lombok.extern.slf4j.Slf4j;
+import org.talust.block.data.BlockHeaderStore;
 import org.talust.block.data.DataContainer;
 import org.talust.block.model.Block;
 import org.talust.common.crypto.Hex;
@@ -33,17 +34,25 @@ import org.talust.common.crypto.Sha256Hash;
 import org.talust.common.model.Message;
 import org.talust.common.model.MessageChannel;
 import org.talust.common.tools.CacheManager;
-import org.talust.common.tools.Constant;
+import org.talust.common.tools.Configure;
 import org.talust.common.tools.SerializationUtil;
 import org.talust.consensus.Conference;
 import org.talust.network.MessageHandler;
+import org.talust.storage.BlockCommit;
 import org.talust.storage.BlockStorage;
+import org.talust.storage.ChainDatabase;
+import org.talust.storage.ChainViews;
+import org.talust.storage.TransactionStorage;
 
 import java.util.List;
 
 @Slf4j//其他节点广播出来的区块数据
 public class BlockArrivedHandler implements MessageHandler {
+    private ChainDatabase chainDatabase = ChainDatabase.get();
     private BlockStorage blockStorage = BlockStorage.get();
+    private BlockHeaderStore headerStore = BlockHeaderStore.get();
+    private TransactionStorage transactionStorage = TransactionStorage.get();
+    private ChainViews chainViews = ChainViews.get();
     private CacheManager cu = CacheManager.get();
     private TransactionHandler transactionHandler = new TransactionHandler();
 
@@ -51,27 +60,51 @@ public class BlockArrivedHandler implements MessageHandler {
     public boolean handle(MessageChannel messageChannel) {
         log.info("接收到远端ip:{} 发送过来的区块数据", messageChannel.getFromIp());
         try {
-            saveBlock(messageChannel);
+            return saveBlock(messageChannel) != null;
         } catch (Throwable e) {
             e.printStackTrace();
         }
-        return true;
+        return false;
     }
 
     /**
      * 保存区块
      *
      * @param messageChannel
-     * @return
+     * @return 区块hash,区块中有交易应用失败时不存储该区块,返回null
      */
     public byte[] saveBlock(MessageChannel messageChannel) {
         byte[] blockBytes = messageChannel.getMessage().getContent();
         Block block = SerializationUtil.deserializer(blockBytes, Block.class);
         byte[] hash = Sha256Hash.of(blockBytes).getBytes();
-        blockStorage.put(hash, blockBytes);
-        blockStorage.put(Constant.NOW_BLOCK_HASH, hash);
-        byte[] bh = (Constant.BH_PRIX + block.getHead().getHeight()).getBytes();
-        blockStorage.put(bh, hash);
+        List<byte[]> data = block.getBody().getData();
+        //区块内容,最新区块hash,高度索引以及区块中每条交易产生的数据,在同一批次中一次性写入
+        try (BlockCommit commit = chainDatabase.newCommit()) {
+            commit.recordUndo(block.getHead().getHeight());//同时写入撤销记录,分叉时可快速回滚
+            for (byte[] datum : data) {//先应用交易,失败时区块内容还未追加到区块文件
+                MessageChannel nm = new MessageChannel();
+                Message msg = SerializationUtil.deserializer(datum, Message.class);
+                nm.setMessage(msg);
+                if (!transactionHandler.apply(nm, commit)) {//未提交的修改随commit关闭丢弃
+                    log.warn("区块hash:{},height:{} 中的交易应用失败,拒绝该区块", Hex.encode(hash), block.getHead().getHeight());
+                    return null;
+                }
+            }
+            blockStorage.put(commit, hash, blockBytes);
+            headerStore.putHeader(commit, hash, block.getHead());
+            blockStorage.setNowBlockHash(commit, hash);
+            blockStorage.putHeightHash(commit, block.getHead().getHeight(), hash);
+            commit.commit();//区块内交易输出的修改随提交一次性写入,写入成功后才进入交易输出缓存
+        }
+        headerStore.cacheHeader(hash, block.getHead());
+        chainViews.publish(block.getHead().getHeight(), hash);//接口查询从此看到该区块
+        transactionStorage.indexBlock(block.getHead().getHeight(), hash);//交易索引异步建立
+        if (Configure.PRUNE_DEPTH > 0) {//裁剪模式下删除过深的区块内容
+            blockStorage.prune(block.getHead().getHeight(), Configure.PRUNE_DEPTH);
+        }
+        if (Configure.BLOCK_ARCHIVE_DEPTH > 0) {//较早的区块文件移动到归档目录
+            blockStorage.archiveAsync(block.getHead().getHeight() - Configure.BLOCK_ARCHIVE_DEPTH);
+        }
 
         cu.setCurrentBlockHeight(block.getHead().getHeight());
         cu.setCurrentBlockTime(block.getHead().getTime());
@@ -81,15 +114,9 @@ public class BlockArrivedHandler implements MessageHandler {
         }
         log.info("成功存储区块数据,当前hash:{},height:{},time:{}", Hex.encode(hash), block.getHead().getHeight(), block.getHead().getTime());
 
-        List<byte[]> data = block.getBody().getData();
         for (byte[] datum : data) {
-            MessageChannel nm = new MessageChannel();
-            Message msg = SerializationUtil.deserializer(datum, Message.class);
-            nm.setMessage(msg);
-            transactionHandler.handle(nm);
             DataContainer.get().removeRecord(datum);
         }
-        //@TODO 区块存储时,需要将里面的数据解析出来进行一些索引的存储,比如交易信息这些
         return hash;
     }
 }
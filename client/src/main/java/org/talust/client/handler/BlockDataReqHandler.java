@@ -29,9 +29,10 @@ import lombok.extern.slf4j.Slf4j;
 import org.talust.common.model.Message;
 import org.talust.common.model.MessageChannel;
 import org.talust.common.model.MessageType;
-import org.talust.common.tools.Constant;
 import org.talust.network.MessageHandler;
 import org.talust.network.netty.queue.MessageQueue;
+import org.talust.storage.BlockCodec;
+import org.talust.storage.BlockCursor;
 import org.talust.storage.BlockStorage;
 
 /**
@@ -52,13 +53,27 @@ public class BlockDataReqHandler implements MessageHandler {
         byte[] content = message.getMessage().getContent();
         String num = new String(content);//区块高度
         log.info("远端ip:{} 向当前节点请求区块:{} 的块数据内容...", message.getFromIp(), num);
-        byte[] bh = (Constant.BH_PRIX + num).getBytes();
-        byte[] hash = blockStorage.get(bh);
-        if (hash != null) {
-            byte[] block = blockStorage.get(hash);
+        int height = Integer.parseInt(num);
+        byte[] block = null;
+        try (BlockCursor cursor = blockStorage.scan(height, height)) {//高度索引与区块内容在同一快照中读取
+            if (cursor.hasNext()) {
+                block = cursor.next().getContent();
+            }
+        }
+        Integer codec = message.getMessage().getCodec();
+        if (block != null && codec != null && codec == BlockCodec.ZSTD) {//请求方可以解压,压缩后返回
+            nodeMessage.setContent(BlockCodec.get().encode(block));
+            nodeMessage.setCodec((int) BlockCodec.ZSTD);
+            nodeMessage.setType(MessageType.BLOCK_RESP.getType());
+            log.info("向远端ip:{} 返回本节点拥有的区块:{} 的压缩区块内容...", message.getFromIp(), num);
+        } else if (block != null) {
             nodeMessage.setContent(block);//存储区块内容
             nodeMessage.setType(MessageType.BLOCK_RESP.getType());
             log.info("向远端ip:{} 返回本节点拥有的区块:{} 的区块内容...", message.getFromIp(), num);
+        } else if (blockStorage.isPruned(height)) {
+            nodeMessage.setContent(content);
+            nodeMessage.setType(MessageType.BLOCK_PRUNED.getType());
+            log.info("向远端ip:{} 返回区块:{} 已被裁剪,裁剪高度:{}", message.getFromIp(), num, blockStorage.getPrunedHeight());
         } else {
             nodeMessage.setContent(content);
             nodeMessage.setType(MessageType.ERROR_MESSAGE.getType());
@@ -30,23 +30,29 @@ import org.talust.account.Account;
 import org.talust.account.AccountStatus;
 import org.talust.account.AccountType;
 import org.talust.account.MiningAddress;
+import org.talust.block.data.DataContainer;
 import org.talust.block.model.TranType;
 import org.talust.block.model.Transaction;
+import org.talust.block.model.TransactionIn;
 import org.talust.block.model.TransactionOut;
 import org.talust.common.crypto.Hex;
 import org.talust.common.crypto.Utils;
 import org.talust.common.model.MessageChannel;
+import org.talust.common.tools.ArithUtils;
 import org.talust.common.tools.CacheManager;
 import org.talust.common.tools.Configure;
 import org.talust.common.tools.Constant;
 import org.talust.common.tools.SerializationUtil;
 import org.talust.network.MessageHandler;
-import org.talust.storage.BlockStorage;
+import org.talust.storage.BlockCommit;
 import org.talust.storage.ChainStateStorage;
+import org.talust.storage.UtxoCache;
 
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 /**
@@ -54,21 +60,40 @@ import java.util.concurrent.locks.ReentrantReadWriteLock;
  */
 @Slf4j
 public class TransactionHandler implements MessageHandler {
-    private BlockStorage blockStorage = BlockStorage.get();
     private ChainStateStorage chainStateStorage = ChainStateStorage.get();
+    private UtxoCache utxoCache = UtxoCache.get();
+    private DataContainer dataContainer = DataContainer.get();
     private ReentrantReadWriteLock rwl = new ReentrantReadWriteLock();
 
+    /**
+     * 收到广播的交易,校验通过后放入待打包的数据中,链状态只在交易所在的区块存储时修改
+     *
+     * @param message
+     * @return
+     */
     @Override
     public boolean handle(MessageChannel message) {
+        dataContainer.addRecord(SerializationUtil.serializer(message.getMessage()));
+        return true;
+    }
+
+    /**
+     * 应用一条交易,产生的写操作全部放入commit中,由调用方统一提交
+     *
+     * @param message
+     * @param commit
+     * @return
+     */
+    public boolean apply(MessageChannel message, BlockCommit commit) {
         boolean result = true;
         Transaction transaction = SerializationUtil.deserializer(message.getMessage().getContent(), Transaction.class);
         int tranType = transaction.getTranType();
         if (tranType == TranType.ACCOUNT.getType()) {//是帐户下发的交易类型
-            result = accountPub(transaction);
+            result = accountPub(transaction, commit);
         } else if (tranType == TranType.TRANSFER.getType()) {//是转账的交易类型
-
+            result = transfer(transaction, commit);
         } else if (tranType == TranType.COIN_BASE.getType()) {//是挖矿所得
-            coinBase(transaction);
+            coinBase(transaction, commit);
         } else if (tranType == TranType.DEPOSIT.getType()) {//是储蓄
 
         } else if (tranType == TranType.BUSINESS.getType()) {//是做业务
@@ -79,17 +104,59 @@ public class TransactionHandler implements MessageHandler {
     }
 
     /**
-     * 挖矿处理
+     * 转账处理,花费输入项对应的交易输出并产生新的交易输出,同时扣减输入方余额并增加输出方余额,
+     * 修改记录在区块提交中,随区块一起写入并记录撤销,任何一个输入项不存在、已被花费或在交易中重复时整条交易不生效
+     *
+     * @param transaction
+     * @param commit
+     * @return
+     */
+    private boolean transfer(Transaction transaction, BlockCommit commit) {
+        List<TransactionIn> ins = transaction.getIns() != null ? transaction.getIns() : Collections.emptyList();
+        List<TransactionOut> spents = new ArrayList<>();
+        Set<String> outpoints = new HashSet<>();
+        for (TransactionIn in : ins) {
+            if (!outpoints.add(in.getTranNumber() + "-" + in.getItem())) {
+                log.warn("交易号:{} 重复花费输入项:{}-{},交易不生效", transaction.getTranNumber(), in.getTranNumber(), in.getItem());
+                return false;
+            }
+            byte[] outBytes = utxoCache.get(commit, in.getTranNumber(), in.getItem());
+            if (outBytes == null) {
+                log.warn("交易号:{} 的输入项:{}-{} 不存在或已被花费,交易不生效", transaction.getTranNumber(), in.getTranNumber(), in.getItem());
+                return false;
+            }
+            spents.add(SerializationUtil.deserializer(outBytes, TransactionOut.class));
+        }
+        for (int idx = 0; idx < ins.size(); idx++) {
+            TransactionIn in = ins.get(idx);
+            TransactionOut spent = spents.get(idx);
+            utxoCache.spend(commit, in.getTranNumber(), in.getItem(), spent.getAddress());
+            chainStateStorage.addAddressAmount(commit, spent.getAddress(), -ArithUtils.toMinor(spent.getAmount()));
+        }
+        List<TransactionOut> outs = transaction.getOuts();
+        if (outs != null) {
+            for (TransactionOut out : outs) {
+                utxoCache.add(commit, transaction.getTranNumber(), out.getItem(), out.getAddress(), SerializationUtil.serializer(out));
+                chainStateStorage.addAddressAmount(commit, out.getAddress(), ArithUtils.toMinor(out.getAmount()));
+            }
+        }
+        log.info("处理完转账消息.交易号:{}", transaction.getTranNumber());
+        return true;
+    }
+
+    /**
+     * 挖矿处理,产生交易输出并增加收益地址的余额
      *
      * @param transaction
+     * @param commit
      * @return
      */
-    private boolean coinBase(Transaction transaction) {
+    private boolean coinBase(Transaction transaction, BlockCommit commit) {
         List<TransactionOut> outs = transaction.getOuts();
         if (outs != null) {
             for (TransactionOut out : outs) {
-                String key = transaction.getTranNumber() + "-" + out.getItem();
-                chainStateStorage.put(key.getBytes(), SerializationUtil.serializer(out));
+                utxoCache.add(commit, transaction.getTranNumber(), out.getItem(), out.getAddress(), SerializationUtil.serializer(out));
+                chainStateStorage.addAddressAmount(commit, out.getAddress(), ArithUtils.toMinor(out.getAmount()));
             }
         }
         log.info("处理完coinbase消息.交易号:{}", transaction.getTranNumber());
@@ -100,15 +167,16 @@ public class TransactionHandler implements MessageHandler {
      * 帐户下发处理
      *
      * @param transaction
+     * @param commit
      * @return
      */
-    private boolean accountPub(Transaction transaction) {
+    private boolean accountPub(Transaction transaction, BlockCommit commit) {
         try {
             byte[] content = transaction.getDatas();
             Account account = SerializationUtil.deserializer(content, Account.class);
             int accType = account.getAccType();
             if (accType == AccountType.ROOT.getType() && Utils.equals(account.getPublicKey(), Hex.decode(CacheManager.get().get("ROOT_PK")))) {//如果当前帐户是根帐户
-                blockStorage.put(Constant.ROOT_CA, content);
+                chainStateStorage.putAccount(commit, Constant.ROOT_CA, content);
             }
 
             if (accType == AccountType.MINING.getType()) {//是挖矿的帐户
@@ -117,9 +185,9 @@ public class TransactionHandler implements MessageHandler {
                     String accountAddress = Utils.showAddress(account.getAddress());
                     int status = account.getStatus();
                     if (status == AccountStatus.ENABLE.getType()) {
-                        enabledMiningAddress(accountAddress);
+                        enabledMiningAddress(accountAddress, commit);
                     } else {
-                        disableMiningAddress(accountAddress);
+                        disableMiningAddress(accountAddress, commit);
                     }
                 } finally {
                     rwl.writeLock().unlock();
@@ -128,7 +196,7 @@ public class TransactionHandler implements MessageHandler {
 
             byte[] accAddr = account.getAddress();
             byte[] accId = Utils.addBytes(Constant.ACC_PREFIX, accAddr);
-            blockStorage.put(accId, content);
+            chainStateStorage.putAccount(commit, accId, content);
             log.info("处理完成帐户下发消息,下发的帐户地址:{}", Utils.showAddress(account.getAddress()));
         } catch (Throwable e) {
             e.printStackTrace();
@@ -141,10 +209,11 @@ public class TransactionHandler implements MessageHandler {
      * 挖矿地址可用
      *
      * @param accountAddress
+     * @param commit
      */
-    private void enabledMiningAddress(String accountAddress) {
+    private void enabledMiningAddress(String accountAddress, BlockCommit commit) {
         List<String> adres = null;
-        byte[] bytes = blockStorage.get(Constant.MINING_ADDRESS);
+        byte[] bytes = chainStateStorage.getAccount(commit, Constant.MINING_ADDRESS);
         if (bytes != null) {
             MiningAddress miningAddress = SerializationUtil.deserializer(bytes, MiningAddress.class);
             if (miningAddress != null) {
@@ -159,7 +228,7 @@ public class TransactionHandler implements MessageHandler {
         }
         MiningAddress miningAddres = new MiningAddress();
         miningAddres.setAddress(adres);
-        blockStorage.put(Constant.MINING_ADDRESS, SerializationUtil.serializer(miningAddres));
+        chainStateStorage.putAccount(commit, Constant.MINING_ADDRESS, SerializationUtil.serializer(miningAddres));
 
         //将挖矿收益地址存于缓存中
         String cacheKey = new String(Constant.MINING_ADDRESS);
@@ -176,9 +245,10 @@ public class TransactionHandler implements MessageHandler {
      * 挖矿地址不可用
      *
      * @param accountAddress
+     * @param commit
      */
-    private void disableMiningAddress(String accountAddress) {
-        byte[] bytes = blockStorage.get(Constant.MINING_ADDRESS);
+    private void disableMiningAddress(String accountAddress, BlockCommit commit) {
+        byte[] bytes = chainStateStorage.getAccount(commit, Constant.MINING_ADDRESS);
         if (bytes != null) {
             MiningAddress miningAddress = SerializationUtil.deserializer(bytes, MiningAddress.class);
             if (miningAddress != null) {
@@ -186,7 +256,7 @@ public class TransactionHandler implements MessageHandler {
                 adres.remove(accountAddress);
                 MiningAddress miningAddres = new MiningAddress();
                 miningAddres.setAddress(adres);
-                blockStorage.put(Constant.MINING_ADDRESS, SerializationUtil.serializer(miningAddres));
+                chainStateStorage.putAccount(commit, Constant.MINING_ADDRESS, SerializationUtil.serializer(miningAddres));
 
                 String cacheKey = new String(Constant.MINING_ADDRESS);
                 List<String> madress = CacheManager.get().get(cacheKey);
@@ -27,6 +27,7 @@ package org.talust.client.validator;
 
 import lombok.extern.slf4j.Slf4j;
 import org.talust.block.SynBlock;
+import org.talust.block.data.BlockHeaderStore;
 import org.talust.block.model.Block;
 import org.talust.block.model.BlockHead;
 import org.talust.common.model.Message;
@@ -35,7 +36,6 @@ import org.talust.common.tools.CacheManager;
 import org.talust.common.tools.Configure;
 import org.talust.common.tools.SerializationUtil;
 import org.talust.network.MessageValidator;
-import org.talust.storage.BlockStorage;
 
 import java.util.List;
 
@@ -44,7 +44,7 @@ import java.util.List;
  */
 @Slf4j
 public class BlockArrivedValidator implements MessageValidator {
-    private BlockStorage storageService = BlockStorage.get();
+    private BlockHeaderStore headerStore = BlockHeaderStore.get();
     private TransactionValidator transactionValidator = new TransactionValidator();
 
     @Override
@@ -59,10 +59,9 @@ public class BlockArrivedValidator implements MessageValidator {
         }
         if (height > 1) {
             byte[] prevBlock = head.getPrevBlock();//前一区块hash
-            byte[] preBlockBytes = storageService.get(prevBlock);
-            if (preBlockBytes != null) {
-                Block preBlock = SerializationUtil.deserializer(preBlockBytes, Block.class);
-                int preHeight = preBlock.getHead().getHeight();
+            BlockHead preHead = headerStore.getHeader(prevBlock);//只读取前一区块的区块头
+            if (preHead != null) {
+                int preHeight = preHead.getHeight();
                 int nowHeight = block.getHead().getHeight();
                 if ((nowHeight - preHeight) == 1) {
                     result = true;
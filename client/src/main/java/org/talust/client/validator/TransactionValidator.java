@@ -37,8 +37,8 @@ import org.talust.common.model.Message;
 import org.talust.common.model.MessageChannel;
 import org.talust.network.MessageValidator;
 import org.talust.network.netty.queue.MessageQueueHolder;
-import org.talust.storage.BlockStorage;
 import org.talust.storage.ChainStateStorage;
+import org.talust.storage.UtxoCache;
 import org.talust.common.tools.*;
 
 import java.math.BigDecimal;
@@ -53,8 +53,8 @@ import static javax.swing.UIManager.get;
 @Slf4j
 public class TransactionValidator implements MessageValidator {
     private MessageQueueHolder mqHolder = MessageQueueHolder.get();
-    private BlockStorage blockStorage = BlockStorage.get();
     private ChainStateStorage stateStorage = ChainStateStorage.get();
+    private UtxoCache utxoCache = UtxoCache.get();
     private double nearZero = 0.0000000000001;
     @Override
     public boolean check(MessageChannel message) {//对每一条交易数据进行验证
@@ -112,7 +112,7 @@ public class TransactionValidator implements MessageValidator {
                     if (verify) {
                         byte[] parentAddr = Utils.getAddress(parentPub);//父级节点地址
                         byte[] parentAddrKey = Utils.addBytes(Constant.ACC_PREFIX, parentAddr);
-                        byte[] parentBytes = blockStorage.get(parentAddrKey);
+                        byte[] parentBytes = stateStorage.getAccount(parentAddrKey);
                         if (parentBytes == null) {
                             parentBytes = CacheManager.get().get(Hex.encode(parentAddrKey));
                         }
@@ -169,8 +169,6 @@ public class TransactionValidator implements MessageValidator {
                             double baseCoin = MiningRule.getBaseCoin(currentBlockHeight + 1);
                             double amount = out.getAmount();
                             if (Math.abs(baseCoin - amount) > nearZero) {//说明本次挖矿所得数量没有问题
-                                String addrAmt = stateStorage.getAddressAmount(address);
-                                stateStorage.saveAddressAmount(address, ArithUtils.add(addrAmt,amount));
                                 result = false;
                                 break;
                             }
@@ -185,8 +183,6 @@ public class TransactionValidator implements MessageValidator {
                             double depositCoin = MiningRule.getDepositCoin(currentBlockHeight + 1);
                             double amount = out.getAmount();
                             if (Math.abs(depositCoin - amount) > nearZero) {//说明本次挖矿所得数量没有问题
-                                String addrAmt = stateStorage.getAddressAmount(address);
-                                stateStorage.saveAddressAmount(address,ArithUtils.add(addrAmt,amount));
                                 result = false;
                                 break;
                             }
@@ -223,8 +219,7 @@ public class TransactionValidator implements MessageValidator {
                 if (disable) {//说明当前的票子已经有可能被使用过了,主要是为了防止双花
                     return false;
                 }
-                String tid = tranNumber + "-" + item;
-                byte[] transactionOut = stateStorage.get(tid.getBytes());
+                byte[] transactionOut = utxoCache.get(tranNumber, item);
                 TransactionOut out = SerializationUtil.deserializer(transactionOut, TransactionOut.class);
                 if (out != null) {
                     byte[] address = out.getAddress();
@@ -251,8 +246,7 @@ public class TransactionValidator implements MessageValidator {
                         }
                         //TODO if transfer success ,we need  got the addrs in accountStorage
                         // TODO  save the transfer in an local cache
-                        String addrAmt = stateStorage.getAddressAmount(signAddr);
-                        stateStorage.saveAddressAmount(signAddr,ArithUtils.sub(addrAmt,outAmount));
+                        //余额随交易所在的区块提交修改,见TransactionHandler
                         return true;
                     }
                 }
@@ -44,6 +44,8 @@ public class Message {
     private Integer time;
     @Tag(6)//消息计数器,由一个AtomicLong不断累加,主要针对请求响应模型的,通过此来定位请求点
     private Long msgCount;
+    @Tag(7)//内容的编码,请求中表示请求方可以接受的编码,响应中表示内容所用的编码,为空表示未编码
+    private Integer codec;
 
     public Integer getType() {
         return type;
@@ -70,6 +72,14 @@ public class Message {
         this.msgCount = msgCount;
     }
 
+    public Integer getCodec() {
+        return codec;
+    }
+
+    public void setCodec(Integer codec) {
+        this.codec = codec;
+    }
+
     public Integer getTime() {
         return time;
     }
@@ -44,6 +44,7 @@ public enum MessageType {
     MASTER_RESP(18),//master响应
     NEW_MASTER_REQ(19),//切换新的master请求d
     NEW_MASTER_RESP(20),//切换新的master响应
+    BLOCK_PRUNED(22),//请求的区块内容已被裁剪,请求方需向其他节点获取
     END(10000)//结束,主要是为了开发时新增消息类型方便/
     ;
 
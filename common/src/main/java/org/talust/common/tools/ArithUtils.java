@@ -35,6 +35,10 @@ public class ArithUtils
 {
 
     private static final int DEF_DIV_SCALE = 10;
+    /**
+     * 一个币对应的最小单位数量,余额以最小单位的整数存储
+     */
+    public static final long COIN = 100000000L;
 
     private ArithUtils()
     {
@@ -150,6 +154,21 @@ public class ArithUtils
         }
     }
 
+    public static long toMinor(double v)
+    {
+        return toMinor(new BigDecimal(Double.valueOf(v).toString()));
+    }
+
+    public static long toMinor(BigDecimal v)
+    {
+        return v.multiply(BigDecimal.valueOf(COIN)).setScale(0, BigDecimal.ROUND_HALF_UP).longValueExact();
+    }
+
+    public static String fromMinor(long v)
+    {
+        return BigDecimal.valueOf(v).divide(BigDecimal.valueOf(COIN)).stripTrailingZeros().toPlainString();
+    }
+
     public static int compareStr(String str1, String str2)
     {
         BigDecimal bg1 = new BigDecimal(str1);
@@ -26,6 +26,7 @@
 package org.talust.common.tools;
 
 import java.io.File;
+import java.lang.management.ManagementFactory;
 
 /**
  * 配置内容
@@ -56,9 +57,43 @@ public final class Configure {
      */
     public static String DATA_ACCOUNT = DATA_DIR + File.separator + "account";
     /**
-     * 区块存储目录
+     * 区块存储目录,区块内容以追加方式写入该目录下的blk-NNNNN.dat文件
      */
     public static String DATA_BLOCK = DATA_DIR + File.separator + "block";
+    /**
+     * 除DATA_BLOCK外的区块数据目录,多个以逗号分隔,通过-Dtalust.block.dirs指定,
+     * 新的区块文件按编号轮流写入这些目录,各目录可以位于不同的磁盘
+     */
+    public static String BLOCK_DIRS = System.getProperty("talust.block.dirs");
+    /**
+     * 区块文件归档目录,通过-Dtalust.block.archive指定,可以位于较便宜的磁盘,为空时不归档
+     */
+    public static String BLOCK_ARCHIVE_DIR = System.getProperty("talust.block.archive");
+    /**
+     * 归档深度,早于最新高度减去该深度的区块所在的已封存区块文件在运行中移动到归档目录,为0时不归档
+     */
+    public static int BLOCK_ARCHIVE_DEPTH = Integer.getInteger("talust.block.archive.depth", 10000);
+    /**
+     * 单个区块文件的最大大小,单位字节,超过后切换到新的区块文件
+     */
+    public static long BLOCK_FILE_SIZE = 128L * 1024 * 1024;
+    /**
+     * 裁剪模式下保留的区块内容深度,早于最新高度减去该深度的区块内容将被删除,区块头与高度索引保留,
+     * 通过-Dtalust.prune指定,为0时不裁剪
+     */
+    public static int PRUNE_DEPTH = Integer.getInteger("talust.prune", 0);
+    /**
+     * 区块内容是否压缩存储
+     */
+    public static boolean BLOCK_COMPRESS = true;
+    /**
+     * 每存储多少个区块重新训练一次压缩字典
+     */
+    public static int BLOCK_DICT_TRAIN_INTERVAL = 5000;
+    /**
+     * 压缩字典的大小,单位字节
+     */
+    public static int BLOCK_DICT_SIZE = 64 * 1024;
     /**
      * 区块状态存储目录
      */
@@ -67,6 +102,69 @@ public final class Configure {
      * 与帐户有关的交易存储目录
      */
     public static String DATA_TRANSACTION = DATA_DIR + File.separator + "transaction";
+    /**
+     * 链数据库存储目录,区块索引、链状态、交易索引等存放于同一个库的不同列族中
+     */
+    public static String DATA_CHAIN = DATA_DIR + File.separator + "chain";
+    /**
+     * 链数据库的存储引擎,rocksdb或memory,通过-Dtalust.storage指定,memory不落盘,用于临时节点与基准测试
+     */
+    public static String STORAGE_ENGINE = System.getProperty("talust.storage", "rocksdb");
+    /**
+     * 链数据库所有列族共享的块缓存大小,单位字节
+     */
+    public static long STORAGE_BLOCK_CACHE_SIZE = 256L * 1024 * 1024;
+    /**
+     * 链数据库所有列族memtable共享的写缓冲总大小,单位字节,计入块缓存
+     */
+    public static long STORAGE_WRITE_BUFFER_SIZE = 128L * 1024 * 1024;
+    /**
+     * 交易输出缓存的内存上限,单位字节,超过后淘汰最久未使用且已写入的交易输出
+     */
+    public static long UTXO_CACHE_SIZE = 64L * 1024 * 1024;
+    /**
+     * 存储写入线程合并提交的最长等待时间,单位毫秒,等待期间到达的写入合并为一次同步提交
+     */
+    public static int STORAGE_COMMIT_DELAY = 5;
+    /**
+     * 存储写入线程一次合并提交的最多写入数
+     */
+    public static int STORAGE_COMMIT_BATCH = 1000;
+    /**
+     * 保留只读视图的最近区块数,接口查询在最近区块提交后的快照上读取,为0时不发布视图
+     */
+    public static int CHAIN_VIEW_DEPTH = 16;
+    /**
+     * 保留撤销记录的区块数,可以快速回滚的最大深度,更深的分叉需要重新同步
+     */
+    public static int UNDO_DEPTH = 1000;
+    /**
+     * 交易号每次预留的数量,只在预留新的一段时写入一次上限
+     */
+    public static long TRAN_NUMBER_RANGE = 10000;
+    /**
+     * 链数据快照的制作目录
+     */
+    public static String SNAPSHOT_DIR = DATA_DIR + File.separator + "snapshot";
+    /**
+     * 启动时导入的链数据快照目录,通过-Dtalust.snapshot指定,本地已有链数据时忽略
+     */
+    public static String SNAPSHOT_IMPORT = System.getProperty("talust.snapshot");
+
+    /**
+     * 只读跟随模式,通过-Dtalust.follower=true开启,以RocksDB从实例打开主节点的链数据,
+     * 定时追赶主节点的写入,只提供查询接口,不启动网络与共识
+     */
+    public static boolean FOLLOWER = Boolean.getBoolean("talust.follower");
+    /**
+     * 跟随模式下从实例自身的日志目录,同一台机器上的多个跟随进程需使用不同的目录,通过-Dtalust.follower.dir指定
+     */
+    public static String FOLLOWER_DIR = System.getProperty("talust.follower.dir",
+            DATA_DIR + File.separator + "follower-" + ManagementFactory.getRuntimeMXBean().getName().split("@")[0]);
+    /**
+     * 跟随模式下追赶主节点写入的间隔,单位毫秒
+     */
+    public static int FOLLOWER_CATCH_UP_INTERVAL = 1000;
 
     /**
      * peers 文件储存目录
@@ -77,6 +175,23 @@ public final class Configure {
      */
     public static String CONFIG_PATH  = SERVER_HOME + File.separator +"conf";
 
+    /**
+     * 单条网络消息的最大长度,单位字节,超过时认为对端异常并关闭连接
+     */
+    public static int MAX_FRAME_SIZE = 64 * 1024 * 1024;
+    /**
+     * 单个连接发送缓冲的高水位,单位字节,超过后暂停向该连接写入,消息留在发送队列中
+     */
+    public static int OUTBOUND_HIGH_WATER = 1024 * 1024;
+    /**
+     * 单个连接发送缓冲的低水位,单位字节,降到该值以下后继续写入
+     */
+    public static int OUTBOUND_LOW_WATER = 512 * 1024;
+    /**
+     * 单个连接发送队列的最大消息数,超过后丢弃新的消息
+     */
+    public static int OUTBOUND_QUEUE_SIZE = 10000;
+
     /**
      * 业务节点最大被动连接数
      */
@@ -9,10 +9,6 @@ public interface Constant {
      * 用于存储最新块的hash值
      */
     byte[] NOW_BLOCK_HASH = "now_block".getBytes();
-    /**
-     * 区块高度前缀,即针对每一个区块高度,都会存储此高度对应的区块hash值
-     */
-    String BH_PRIX = "bh_";
 
     /**
      * 根证书的存储key
@@ -12,7 +12,8 @@ public class ThreadPool {
 
     private ThreadPool() {
         int coreSize = 2 * Runtime.getRuntime().availableProcessors() + 1;
-        threadPool = new ThreadPoolExecutor(coreSize, Integer.MAX_VALUE, 5,
+        //线程数有上限,线程用尽时由提交任务的线程自己执行,以此减缓提交速度
+        threadPool = new ThreadPoolExecutor(coreSize, 4 * coreSize, 5,
                 TimeUnit.SECONDS, new SynchronousQueue(), new ThreadPoolExecutor.CallerRunsPolicy());
     }
 
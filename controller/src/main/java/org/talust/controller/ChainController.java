@@ -0,0 +1,87 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017-2018 talust.org talust.io
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ */
+
+package org.talust.controller;
+
+import com.alibaba.fastjson.JSONObject;
+import io.swagger.annotations.Api;
+import io.swagger.annotations.ApiOperation;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+import org.talust.ResponseMessage;
+import org.talust.common.crypto.Utils;
+import org.talust.common.tools.ArithUtils;
+import org.talust.common.tools.Configure;
+import org.talust.storage.ChainSnapshot;
+import org.talust.storage.ChainView;
+import org.talust.storage.ChainViews;
+
+import java.io.File;
+
+@RestController
+@RequestMapping("/api/chain")
+@Api("链数据相关的Api")
+@Slf4j
+public class ChainController {
+
+    @ApiOperation(value = "制作快照", notes = "制作当前链数据的快照,新节点可通过-Dtalust.snapshot导入后只同步之后的区块")
+    @PostMapping(value = "snapshot")
+    ResponseMessage snapshot() {
+        String dir = Configure.SNAPSHOT_DIR + File.separator + System.currentTimeMillis();
+        try {
+            JSONObject manifest = ChainSnapshot.get().create(dir);
+            manifest.put("path", dir);
+            return ResponseMessage.ok(manifest);
+        } catch (Exception e) {
+            log.error("制作快照失败", e);
+            return ResponseMessage.error("制作快照失败:" + e.getMessage());
+        }
+    }
+
+    @ApiOperation(value = "查询余额", notes = "在最新区块提交后的视图上查询地址余额,height为不超过最近区块数的历史高度时查询该高度的余额")
+    @GetMapping(value = "balance")
+    ResponseMessage balance(@RequestParam String address, @RequestParam(required = false) Integer height) {
+        byte[] addr;
+        try {
+            addr = Utils.deShowAddress(address);
+        } catch (Exception e) {
+            return ResponseMessage.error("地址格式不正确:" + address);
+        }
+        try (ChainView view = height != null ? ChainViews.get().at(height) : ChainViews.get().latest()) {
+            if (view == null) {
+                return ResponseMessage.error("没有该高度的链数据视图");
+            }
+            JSONObject result = new JSONObject();
+            result.put("address", address);
+            result.put("height", view.getHeight());
+            result.put("amount", ArithUtils.fromMinor(view.getAddressAmount(addr)));
+            return ResponseMessage.ok(result);
+        }
+    }
+}
@@ -0,0 +1,74 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017-2018 talust.org talust.io
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ */
+
+package org.talust.controller;
+
+import com.alibaba.fastjson.JSONArray;
+import com.alibaba.fastjson.JSONObject;
+import io.swagger.annotations.Api;
+import io.swagger.annotations.ApiOperation;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+import org.talust.ResponseMessage;
+import org.talust.network.model.MyChannel;
+import org.talust.network.netty.ChannelContain;
+import org.talust.network.netty.queue.MessageLane;
+import org.talust.network.netty.queue.MessageQueue;
+
+@RestController
+@RequestMapping("/api/node")
+@Api("节点运行状态相关的Api")
+public class NodeController {
+
+    @ApiOperation(value = "消息队列状态", notes = "各消息通道的积压数、丢弃数与暂停读取的连接数,各节点被拒绝的消息数,以及各连接发送队列的积压数与丢弃数")
+    @GetMapping(value = "queues")
+    ResponseMessage queues() {
+        MessageQueue mq = MessageQueue.get();
+        JSONArray lanes = new JSONArray();
+        for (MessageLane lane : MessageLane.values()) {
+            JSONObject item = new JSONObject();
+            item.put("lane", lane.name());
+            item.put("size", mq.size(lane));
+            item.put("capacity", lane.getCapacity());
+            item.put("dropped", mq.getDropped(lane));
+            item.put("paused", mq.getPaused(lane));
+            lanes.add(item);
+        }
+        JSONObject result = new JSONObject();
+        result.put("lanes", lanes);
+        result.put("rejected", mq.getRejected());
+        JSONObject outbound = new JSONObject();
+        for (MyChannel channel : ChannelContain.get().getMyChannels()) {
+            JSONObject item = new JSONObject();
+            item.put("pending", channel.getWriter().getPending());
+            item.put("dropped", channel.getWriter().getDropped());
+            item.put("writable", channel.getChannel().isWritable());
+            outbound.put(channel.getRemoteIp(), item);
+        }
+        result.put("outbound", outbound);
+        return ResponseMessage.ok(result);
+    }
+}
@@ -26,6 +26,7 @@
 package org.talust.network.model;
 
 import io.netty.channel.Channel;
+import org.talust.network.netty.ChannelWriter;
 
 //对通道的封装
 public class MyChannel {
@@ -34,6 +35,8 @@ public class MyChannel {
     private String remoteIp;
     //是否被动连接,为真表示此channel为被动连接,即远端连接本节点获得的,为假则表示此channel为主动连接远端获得的
     private boolean isPassive;
+    //发送队列,发往该连接的消息经此批量写入
+    private ChannelWriter writer;
 
     public Channel getChannel() {
         return channel;
@@ -43,6 +46,14 @@ public class MyChannel {
         this.channel = channel;
     }
 
+    public ChannelWriter getWriter() {
+        return writer;
+    }
+
+    public void setWriter(ChannelWriter writer) {
+        this.writer = writer;
+    }
+
     public String getLocalIp() {
         return localIp;
     }
@@ -29,6 +29,8 @@ import org.talust.common.model.MessageChannel;
 import org.talust.common.model.MessageType;
 
 import org.talust.common.model.Message;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
 import io.netty.channel.Channel;
 import io.netty.util.internal.ConcurrentSet;
 import lombok.extern.slf4j.Slf4j;
@@ -69,6 +71,7 @@ public class ChannelContain {
     public void addChannel(Channel sc, boolean isPassive) {
         MyChannel myChannel = new MyChannel();
         myChannel.setChannel(sc);
+        myChannel.setWriter(new ChannelWriter(sc));
         myChannel.setPassive(isPassive);
         InetSocketAddress insocket = (InetSocketAddress) sc.remoteAddress();
         String remoteIp = insocket.getAddress().getHostAddress();
@@ -86,11 +89,13 @@ public class ChannelContain {
 
     public synchronized void removeChannel(Channel sc) {
         if (sc != null) {
+            mq.removeChannel(sc);
             InetSocketAddress insocket = (InetSocketAddress) sc.remoteAddress();
             String remoteIp = insocket.getAddress().getHostAddress();
-            if (mapChannel.containsKey(remoteIp)) {
-                mapChannel.remove(remoteIp);
+            MyChannel myChannel = mapChannel.remove(remoteIp);
+            if (myChannel != null) {
                 superChannel.remove(remoteIp);
+                myChannel.getWriter().close();//释放发送队列中尚未写入的消息
             }
             allNodeIps.remove(remoteIp);
         }
@@ -117,15 +122,56 @@ public class ChannelContain {
         return  ChannelContain.get().mapChannel.get(ip).getChannel();
     }
     /**
-     * 向cid所指向的通道发送消息
+     * 向cid所指向的通道发送消息,消息放入该连接的发送队列,由连接的事件循环批量写入
      *
      * @param remoteIp
      * @param message
+     * @return 是否放入发送队列
      */
-    public void sendMessage(String remoteIp, Message message) {
+    public boolean sendMessage(String remoteIp, Message message) {
         MyChannel myChannel = mapChannel.get(remoteIp);
         if (myChannel != null) {
-            myChannel.getChannel().writeAndFlush(message);
+            return myChannel.getWriter().write(message);
+        }
+        return false;
+    }
+
+    /**
+     * 向多个节点发送同一条消息,消息只编码一次,各个连接共享编码后的内容
+     *
+     * @param remoteIps
+     * @param message
+     * @return 放入发送队列的连接数
+     */
+    public int sendMessage(Collection<String> remoteIps, Message message) {
+        if (remoteIps.isEmpty()) {
+            return 0;
+        }
+        int count = 0;
+        ByteBuf frame = MessageCodec.encodeFrame(ByteBufAllocator.DEFAULT, message);
+        try {
+            for (String remoteIp : remoteIps) {
+                MyChannel myChannel = mapChannel.get(remoteIp);
+                if (myChannel != null && myChannel.getWriter().write(frame.retainedDuplicate())) {
+                    count++;
+                }
+            }
+        } finally {
+            frame.release();
+        }
+        return count;
+    }
+
+    /**
+     * 连接的可写状态变化时继续写入该连接积压的消息
+     *
+     * @param sc
+     */
+    public void writabilityChanged(Channel sc) {
+        InetSocketAddress insocket = (InetSocketAddress) sc.remoteAddress();
+        MyChannel myChannel = mapChannel.get(insocket.getAddress().getHostAddress());
+        if (myChannel != null && myChannel.getChannel() == sc) {
+            myChannel.getWriter().writabilityChanged();
         }
     }
 
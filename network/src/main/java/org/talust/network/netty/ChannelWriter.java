@@ -0,0 +1,152 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017-2018 talust.org talust.io
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ */
+
+package org.talust.network.netty;
+
+import io.netty.channel.Channel;
+import io.netty.util.ReferenceCountUtil;
+import lombok.extern.slf4j.Slf4j;
+import org.talust.common.tools.Configure;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 单个连接的发送队列,发送的消息先放入队列,由连接的事件循环批量写入后只刷新一次,
+ * 连接的发送缓冲超过高水位时暂停写入,消息留在队列中,降到低水位后继续写入
+ */
+@Slf4j
+public class ChannelWriter {
+    private Channel channel;
+    private Queue<Object> pending = new ConcurrentLinkedQueue<>();
+    private AtomicInteger size = new AtomicInteger();//队列中待写入的消息数
+    private AtomicBoolean scheduled = new AtomicBoolean();//是否已提交写入任务到事件循环
+    private AtomicLong dropped = new AtomicLong();//队列已满丢弃的消息数
+    private volatile boolean closed = false;//连接已断开,不再写入
+
+    public ChannelWriter(Channel channel) {
+        this.channel = channel;
+    }
+
+    /**
+     * 放入发送队列,可在任意线程调用,队列已满时丢弃该消息,
+     * 消息可以是Message,也可以是已经编码好的ByteBuf帧,丢弃时释放
+     *
+     * @param message
+     * @return 是否放入
+     */
+    public boolean write(Object message) {
+        if (closed) {
+            ReferenceCountUtil.release(message);
+            return false;
+        }
+        if (size.get() >= Configure.OUTBOUND_QUEUE_SIZE) {
+            ReferenceCountUtil.release(message);
+            long count = dropped.incrementAndGet();
+            if ((count & (count - 1)) == 0) {
+                log.warn("发往:{} 的消息积压,累计丢弃消息:{} 条", channel.remoteAddress(), count);
+            }
+            return false;
+        }
+        pending.offer(message);
+        size.incrementAndGet();
+        if (closed) {//放入时恰好被关闭,由放入方释放
+            releasePending();
+            return false;
+        }
+        if (scheduled.compareAndSet(false, true)) {
+            channel.eventLoop().execute(this::drain);
+        }
+        return true;
+    }
+
+    /**
+     * 在事件循环中写入队列中的消息,连接不可写时停止,最后只刷新一次
+     */
+    private void drain() {
+        scheduled.set(false);
+        if (closed || !channel.isActive()) {
+            releasePending();
+            return;
+        }
+        int written = 0;
+        while (channel.isWritable()) {
+            Object message = pending.poll();
+            if (message == null) {
+                break;
+            }
+            size.decrementAndGet();
+            channel.write(message);
+            written++;
+        }
+        if (written > 0) {
+            channel.flush();
+        }
+    }
+
+    /**
+     * 关闭发送队列,连接断开时调用,释放队列中尚未写入的消息,之后放入的消息直接释放
+     */
+    public void close() {
+        closed = true;
+        releasePending();
+    }
+
+    private void releasePending() {
+        for (Object message = pending.poll(); message != null; message = pending.poll()) {
+            size.decrementAndGet();
+            ReferenceCountUtil.release(message);
+        }
+    }
+
+    /**
+     * 连接的可写状态变化时由事件循环调用,重新可写后继续写入积压的消息
+     */
+    public void writabilityChanged() {
+        if (channel.isWritable() && !pending.isEmpty() && scheduled.compareAndSet(false, true)) {
+            drain();
+        }
+    }
+
+    public Channel getChannel() {
+        return channel;
+    }
+
+    /**
+     * 队列中待写入的消息数
+     *
+     * @return
+     */
+    public int getPending() {
+        return size.get();
+    }
+
+    public long getDropped() {
+        return dropped.get();
+    }
+}
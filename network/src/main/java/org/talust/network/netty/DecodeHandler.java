@@ -25,8 +25,7 @@
 
 package org.talust.network.netty;
 
-import org.talust.common.model.Message;
-import org.talust.common.tools.SerializationUtil;
+import org.talust.common.tools.Configure;
 import io.netty.buffer.ByteBuf;
 import io.netty.channel.ChannelHandlerContext;
 import io.netty.handler.codec.ByteToMessageDecoder;
@@ -35,7 +34,7 @@ import lombok.extern.slf4j.Slf4j;
 import java.util.List;
 
 /**
- * 自定义解码器
+ * 自定义解码器,直接从接收缓冲中解码消息,帧长度超过上限时关闭连接
  */
 @Slf4j
 public class DecodeHandler extends ByteToMessageDecoder {
@@ -45,21 +44,22 @@ public class DecodeHandler extends ByteToMessageDecoder {
         if (in.readableBytes() < 4) {
             return;
         }
-        in.markReaderIndex();
-        int dataLength = in.readInt();
-        if (dataLength < 0) {
+        int dataLength = in.getInt(in.readerIndex());
+        if (dataLength < 0 || dataLength > Configure.MAX_FRAME_SIZE) {
+            log.error("远端:{} 发送的消息长度:{} 超出限制,关闭连接", ctx.channel().remoteAddress(), dataLength);
+            in.skipBytes(in.readableBytes());
             ctx.close();
+            return;
         }
-
-        if (in.readableBytes() < dataLength) {
-            in.resetReaderIndex();
+        if (in.readableBytes() < 4 + dataLength) {
             return;
         }
-
-        byte[] body = new byte[dataLength];
-        in.readBytes(body);
-        Message obj = SerializationUtil.deserializer(body, Message.class);
-        out.add(obj);
+        in.skipBytes(4);
+        int end = in.readerIndex() + dataLength;
+        try {
+            out.add(MessageCodec.decode(in, dataLength));
+        } finally {
+            in.readerIndex(end);//解码失败时跳过该帧
+        }
     }
 }
-
@@ -25,24 +25,25 @@
 
 package org.talust.network.netty;
 
-import org.talust.common.tools.SerializationUtil;
 import org.talust.common.model.Message;
 import io.netty.buffer.ByteBuf;
 import io.netty.channel.ChannelHandlerContext;
 import io.netty.handler.codec.MessageToByteEncoder;
 
 /**
- * 自定义编码器
+ * 自定义编码器,按编码后的长度从池中分配发送缓冲,消息直接编码到缓冲中,
+ * 已经编码好的ByteBuf帧(广播时一次编码共享给多个连接)不经过本编码器,直接发送
  */
-public class EncodeHandler extends MessageToByteEncoder {
+public class EncodeHandler extends MessageToByteEncoder<Message> {
 
     @Override
-    public void encode(ChannelHandlerContext ctx, Object in, ByteBuf out) {
-        if (Message.class.isInstance(in)) {
-            byte[] data = SerializationUtil.serializer(in);
-            out.writeInt(data.length);
-            out.writeBytes(data);
-        }
+    protected ByteBuf allocateBuffer(ChannelHandlerContext ctx, Message msg, boolean preferDirect) {
+        int size = 4 + MessageCodec.encodedSize(msg);
+        return preferDirect ? ctx.alloc().ioBuffer(size) : ctx.alloc().heapBuffer(size);
     }
-}
 
+    @Override
+    public void encode(ChannelHandlerContext ctx, Message in, ByteBuf out) {
+        MessageCodec.writeFrame(in, out);
+    }
+}
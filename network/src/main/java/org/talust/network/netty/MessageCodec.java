@@ -0,0 +1,256 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017-2018 talust.org talust.io
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ */
+
+package org.talust.network.netty;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.handler.codec.CorruptedFrameException;
+import org.talust.common.model.Message;
+
+/**
+ * Message的编解码,直接在ByteBuf上读写与protostuff相同的字节格式,与使用SerializationUtil的节点互通,
+ * 编码时不经过中间的LinkedBuffer与字节数组,解码时每个字节字段只从ByteBuf复制一次
+ */
+final class MessageCodec {
+    private static final int WIRE_VARINT = 0;
+    private static final int WIRE_FIXED64 = 1;
+    private static final int WIRE_LENGTH = 2;
+    private static final int WIRE_FIXED32 = 5;
+
+    private static final int TYPE = 1;
+    private static final int CONTENT = 2;
+    private static final int SIGNER = 3;
+    private static final int SIGN_CONTENT = 4;
+    private static final int TIME = 5;
+    private static final int MSG_COUNT = 6;
+    private static final int CODEC = 7;
+
+    private MessageCodec() {
+    }
+
+    /**
+     * 编码后的长度,不含帧长度
+     *
+     * @param message
+     * @return
+     */
+    static int encodedSize(Message message) {
+        return intSize(TYPE, message.getType())
+                + bytesSize(CONTENT, message.getContent())
+                + bytesSize(SIGNER, message.getSigner())
+                + bytesSize(SIGN_CONTENT, message.getSignContent())
+                + intSize(TIME, message.getTime())
+                + longSize(MSG_COUNT, message.getMsgCount())
+                + intSize(CODEC, message.getCodec());
+    }
+
+    /**
+     * 编码为一个完整的帧,帧长度在前,用于一次编码后发给多个连接
+     *
+     * @param alloc
+     * @param message
+     * @return 使用完后需要释放
+     */
+    static ByteBuf encodeFrame(ByteBufAllocator alloc, Message message) {
+        ByteBuf frame = alloc.ioBuffer(4 + encodedSize(message));
+        writeFrame(message, frame);
+        return frame;
+    }
+
+    /**
+     * 写入帧长度与消息
+     *
+     * @param message
+     * @param out
+     */
+    static void writeFrame(Message message, ByteBuf out) {
+        int start = out.writerIndex();
+        out.writeInt(0);
+        encode(message, out);
+        out.setInt(start, out.writerIndex() - start - 4);
+    }
+
+    /**
+     * 按字段号顺序写入非空字段
+     *
+     * @param message
+     * @param out
+     */
+    static void encode(Message message, ByteBuf out) {
+        writeInt(out, TYPE, message.getType());
+        writeBytes(out, CONTENT, message.getContent());
+        writeBytes(out, SIGNER, message.getSigner());
+        writeBytes(out, SIGN_CONTENT, message.getSignContent());
+        writeInt(out, TIME, message.getTime());
+        writeLong(out, MSG_COUNT, message.getMsgCount());
+        writeInt(out, CODEC, message.getCodec());
+    }
+
+    /**
+     * 解码length个字节为Message,无法识别的字段跳过
+     *
+     * @param in
+     * @param length
+     * @return
+     */
+    static Message decode(ByteBuf in, int length) {
+        int end = in.readerIndex() + length;
+        Message message = new Message();
+        while (in.readerIndex() < end) {
+            int tag = readVarint32(in);
+            int field = tag >>> 3;
+            int wireType = tag & 7;
+            if (wireType == WIRE_VARINT && field == TYPE) {
+                message.setType(readVarint32(in));
+            } else if (wireType == WIRE_VARINT && field == TIME) {
+                message.setTime(readVarint32(in));
+            } else if (wireType == WIRE_VARINT && field == MSG_COUNT) {
+                message.setMsgCount(readVarint64(in));
+            } else if (wireType == WIRE_VARINT && field == CODEC) {
+                message.setCodec(readVarint32(in));
+            } else if (wireType == WIRE_LENGTH && field == CONTENT) {
+                message.setContent(readBytes(in, end));
+            } else if (wireType == WIRE_LENGTH && field == SIGNER) {
+                message.setSigner(readBytes(in, end));
+            } else if (wireType == WIRE_LENGTH && field == SIGN_CONTENT) {
+                message.setSignContent(readBytes(in, end));
+            } else {
+                skip(in, tag);
+            }
+        }
+        if (in.readerIndex() != end) {
+            throw new CorruptedFrameException("消息字段超出帧长度");
+        }
+        return message;
+    }
+
+    private static byte[] readBytes(ByteBuf in, int end) {
+        int length = readVarint32(in);
+        if (length < 0 || in.readerIndex() + length > end) {
+            throw new CorruptedFrameException("字段长度错误:" + length);
+        }
+        byte[] value = new byte[length];
+        in.readBytes(value);
+        return value;
+    }
+
+    /**
+     * 跳过无法识别的字段,Message中没有分组字段,分组类型直接拒绝,避免嵌套分组逐层递归
+     */
+    private static void skip(ByteBuf in, int tag) {
+        switch (tag & 7) {
+            case WIRE_VARINT:
+                readVarint64(in);
+                break;
+            case WIRE_FIXED64:
+                in.skipBytes(8);
+                break;
+            case WIRE_LENGTH:
+                int length = readVarint32(in);
+                if (length < 0 || length > in.readableBytes()) {
+                    throw new CorruptedFrameException("字段长度错误:" + length);
+                }
+                in.skipBytes(length);
+                break;
+            case WIRE_FIXED32:
+                in.skipBytes(4);
+                break;
+            default:
+                throw new CorruptedFrameException("无法识别的字段类型:" + (tag & 7));
+        }
+    }
+
+    private static void writeInt(ByteBuf out, int field, Integer value) {
+        if (value != null) {
+            writeVarint32(out, field << 3 | WIRE_VARINT);
+            writeVarint64(out, value);//负数按protobuf的int32规则符号扩展为10个字节
+        }
+    }
+
+    private static void writeLong(ByteBuf out, int field, Long value) {
+        if (value != null) {
+            writeVarint32(out, field << 3 | WIRE_VARINT);
+            writeVarint64(out, value);
+        }
+    }
+
+    private static void writeBytes(ByteBuf out, int field, byte[] value) {
+        if (value != null) {
+            writeVarint32(out, field << 3 | WIRE_LENGTH);
+            writeVarint32(out, value.length);
+            out.writeBytes(value);
+        }
+    }
+
+    private static int intSize(int field, Integer value) {
+        return value == null ? 0 : varintSize(field << 3) + varintSize(value);
+    }
+
+    private static int longSize(int field, Long value) {
+        return value == null ? 0 : varintSize(field << 3) + varintSize(value);
+    }
+
+    private static int bytesSize(int field, byte[] value) {
+        return value == null ? 0 : varintSize(field << 3) + varintSize(value.length) + value.length;
+    }
+
+    private static int varintSize(long value) {
+        int size = 1;
+        while ((value & ~0x7FL) != 0) {
+            value >>>= 7;
+            size++;
+        }
+        return size;
+    }
+
+    private static void writeVarint32(ByteBuf out, int value) {
+        writeVarint64(out, value & 0xFFFFFFFFL);
+    }
+
+    private static void writeVarint64(ByteBuf out, long value) {
+        while ((value & ~0x7FL) != 0) {
+            out.writeByte((int) (value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.writeByte((int) value);
+    }
+
+    private static int readVarint32(ByteBuf in) {
+        return (int) readVarint64(in);
+    }
+
+    private static long readVarint64(ByteBuf in) {
+        long result = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            byte b = in.readByte();
+            result |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return result;
+            }
+        }
+        throw new CorruptedFrameException("varint格式错误");
+    }
+}
@@ -30,10 +30,12 @@ import io.netty.channel.Channel;
 import io.netty.channel.ChannelInitializer;
 import io.netty.channel.ChannelOption;
 import io.netty.channel.EventLoopGroup;
+import io.netty.channel.WriteBufferWaterMark;
 import io.netty.channel.nio.NioEventLoopGroup;
 import io.netty.channel.socket.SocketChannel;
 import io.netty.channel.socket.nio.NioSocketChannel;
 import io.netty.handler.timeout.IdleStateHandler;
+import org.talust.common.tools.Configure;
 import org.talust.network.netty.DecodeHandler;
 import org.talust.network.netty.EncodeHandler;
 
@@ -47,6 +49,8 @@ public class NodeClient {
             b.group(group)
                     .channel(NioSocketChannel.class)
                     .option(ChannelOption.CONNECT_TIMEOUT_MILLIS, 3000)
+                    .option(ChannelOption.WRITE_BUFFER_WATER_MARK,
+                            new WriteBufferWaterMark(Configure.OUTBOUND_LOW_WATER, Configure.OUTBOUND_HIGH_WATER))
                     .handler(new ChildChannelHandler());
             Channel channel = b.connect(host, port).sync().channel();
             return channel;
@@ -60,6 +60,12 @@ public class NodeClientReqHandler extends SimpleChannelInboundHandler<Message> {
         cc.removeChannel(ctx.channel());
     }
 
+    @Override
+    public void channelWritabilityChanged(ChannelHandlerContext ctx) throws Exception {
+        cc.writabilityChanged(ctx.channel());
+        super.channelWritabilityChanged(ctx);
+    }
+
     @Override
     protected void channelRead0(ChannelHandlerContext ctx, Message msg) {
         if (msg.getType() == MessageType.HEARTBEAT_RESP.getType()) {
@@ -71,7 +77,7 @@ public class NodeClientReqHandler extends SimpleChannelInboundHandler<Message> {
             MessageChannel mc = new MessageChannel();
             mc.setMessage(msg);
             mc.setFromIp(remoteIp);
-            mq.addMessage(mc);
+            mq.addMessage(mc, ctx.channel());
         }
     }
 
@@ -0,0 +1,101 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017-2018 talust.org talust.io
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ */
+
+package org.talust.network.netty.queue;
+
+import org.talust.common.model.MessageType;
+
+/**
+ * 消息处理通道,不同类别的消息进入各自的有界队列,由各自的线程处理,
+ * 交易洪泛等大量消息只会占满交易通道,不会延误区块与共识消息
+ */
+public enum MessageLane {
+    CONSENSUS(1024, 1, Thread.MAX_PRIORITY, true),//master选举,单线程保证顺序
+    BLOCK(1024, 1, Thread.MAX_PRIORITY - 1, true),//新区块,单线程按到达顺序存储
+    SYNC(4096, 4, Thread.NORM_PRIORITY, true),//区块同步的请求与响应
+    TX(8192, 2, Thread.MIN_PRIORITY, false),//交易
+    PEER(1024, 1, Thread.NORM_PRIORITY, false);//节点发现、加入与退出
+
+    private int capacity;//队列容量,队列满时丢弃新的消息
+    private int workers;//处理线程数
+    private int priority;//处理线程的优先级
+    private boolean pausable;//积压时是否暂停连接的读取,低优先级的通道只丢弃,不能因其积压阻塞同一连接上的区块与共识消息
+
+    MessageLane(int capacity, int workers, int priority, boolean pausable) {
+        this.capacity = capacity;
+        this.workers = workers;
+        this.priority = priority;
+        this.pausable = pausable;
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    public int getWorkers() {
+        return workers;
+    }
+
+    public int getPriority() {
+        return priority;
+    }
+
+    public boolean isPausable() {
+        return pausable;
+    }
+
+    /**
+     * 消息类型所属的通道
+     *
+     * @param type
+     * @return
+     */
+    public static MessageLane of(int type) {
+        MessageType messageType = MessageType.getMessageType(type);
+        if (messageType == null) {
+            return PEER;
+        }
+        switch (messageType) {
+            case MASTER_REQ:
+            case MASTER_RESP:
+            case NEW_MASTER_REQ:
+            case NEW_MASTER_RESP:
+                return CONSENSUS;
+            case BLOCK_ARRIVED:
+                return BLOCK;
+            case HEIGHT_REQ:
+            case HEIGHT_RESP:
+            case BLOCK_REQ:
+            case BLOCK_RESP:
+            case BLOCK_PRUNED:
+            case ERROR_MESSAGE:
+                return SYNC;
+            case TRANSACTION:
+                return TX;
+            default:
+                return PEER;
+        }
+    }
+}
@@ -25,34 +25,184 @@
 
 package org.talust.network.netty.queue;
 
+import io.netty.channel.Channel;
+import lombok.extern.slf4j.Slf4j;
 import org.talust.common.model.MessageChannel;
 import org.talust.common.tools.DateUtil;
+import org.talust.network.netty.ChannelContain;
 
-import java.util.concurrent.LinkedTransferQueue;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
- * 接收消息队列,即从远端发送过来的数据将存储于此
+ * 接收消息队列,即从远端发送过来的数据将存储于此,按消息类型分别放入各个通道的有界队列,
+ * 发往其他节点的消息不经过队列,直接交给该连接的发送队列.
+ * 通道队列积压到高水位时暂停向其发送消息的连接的读取,由Netty与TCP把压力传回对端,降到低水位后恢复读取,
+ * 交易与节点消息的通道积压时不暂停读取,队列满后丢弃并计数,以免阻塞同一连接上的区块、共识消息与心跳
  */
+@Slf4j
 public class MessageQueue {
     private static MessageQueue instance = new MessageQueue();
 
     private MessageQueue() {
+        for (MessageLane lane : MessageLane.values()) {
+            queues.put(lane, new LinkedBlockingQueue<>(lane.getCapacity()));
+            dropped.put(lane, new AtomicLong());
+            paused.put(lane, ConcurrentHashMap.newKeySet());
+        }
     }
 
     public static MessageQueue get() {
         return instance;
     }
 
-    private LinkedTransferQueue<MessageChannel> queue = new LinkedTransferQueue<>();
+    private Map<MessageLane, BlockingQueue<MessageChannel>> queues = new EnumMap<>(MessageLane.class);
+    private Map<MessageLane, AtomicLong> dropped = new EnumMap<>(MessageLane.class);
+    private Map<MessageLane, Set<Channel>> paused = new EnumMap<>(MessageLane.class);//因该通道积压而暂停读取的连接
+    private Map<String, AtomicLong> rejected = new ConcurrentHashMap<>();//各个节点因队列已满被丢弃的消息数
+
+    /**
+     * 放入本节点产生的消息,队列已满时丢弃该消息
+     *
+     * @param message
+     * @return 是否放入
+     */
+    public boolean addMessage(MessageChannel message) {
+        return addMessage(message, null);
+    }
 
-    public void addMessage(MessageChannel message) {
+    /**
+     * 放入从连接上收到的消息,不阻塞网络线程,可暂停的通道积压到高水位时暂停该连接的读取,
+     * 暂停前已经读入的消息以及不可暂停的通道中的消息在队列已满时丢弃
+     *
+     * @param message
+     * @param channel 收到消息的连接
+     * @return 是否放入
+     */
+    public boolean addMessage(MessageChannel message, Channel channel) {
+        MessageLane lane = MessageLane.PEER;
         if (message.getMessage() != null) {
             message.getMessage().setTime(DateUtil.getTimeSecond());
+            lane = MessageLane.of(message.getMessage().getType());
+        }
+        String toIp = message.getToIp();
+        if (toIp != null && toIp.length() > 0) {//发往其他节点的消息直接放入该连接的发送队列
+            return message.getMessage() != null && ChannelContain.get().sendMessage(toIp, message.getMessage());
+        }
+        BlockingQueue<MessageChannel> queue = queues.get(lane);
+        boolean added = queue.offer(message);
+        if (channel != null && lane.isPausable() && queue.size() >= highWater(lane)) {
+            pause(lane, channel);
+        }
+        if (added) {
+            return true;
+        }
+        if (message.getFromIp() != null) {
+            rejected.computeIfAbsent(message.getFromIp(), ip -> new AtomicLong()).incrementAndGet();
+        }
+        long count = dropped.get(lane).incrementAndGet();
+        if ((count & (count - 1)) == 0) {//按2的幂次打印,避免洪泛时刷屏
+            log.warn("消息通道:{} 已满,累计丢弃消息:{} 条", lane, count);
         }
-        this.queue.add(message);
+        return false;
     }
 
-    public MessageChannel takeMessage() throws Exception {
-        return this.queue.take();
+    public MessageChannel takeMessage(MessageLane lane) throws InterruptedException {
+        BlockingQueue<MessageChannel> queue = queues.get(lane);
+        MessageChannel message = queue.take();
+        if (!paused.get(lane).isEmpty() && queue.size() <= lane.getCapacity() / 4) {
+            resume(lane);
+        }
+        return message;
+    }
+
+    private static int highWater(MessageLane lane) {
+        return lane.getCapacity() * 3 / 4;
+    }
+
+    private synchronized void pause(MessageLane lane, Channel channel) {
+        if (paused.get(lane).add(channel) && channel.config().isAutoRead()) {
+            channel.config().setAutoRead(false);
+            log.info("消息通道:{} 积压,暂停读取连接:{}", lane, channel.remoteAddress());
+        }
+    }
+
+    /**
+     * 恢复因该通道积压而暂停的连接,同时因其他通道积压而暂停的连接继续保持暂停
+     *
+     * @param lane
+     */
+    private synchronized void resume(MessageLane lane) {
+        for (Channel channel : paused.get(lane)) {
+            paused.get(lane).remove(channel);
+            boolean pausedByOther = false;
+            for (Set<Channel> channels : paused.values()) {
+                pausedByOther |= channels.contains(channel);
+            }
+            if (!pausedByOther && channel.isActive()) {
+                channel.config().setAutoRead(true);
+                log.info("消息通道:{} 已消化积压,恢复读取连接:{}", lane, channel.remoteAddress());
+            }
+        }
+    }
+
+    /**
+     * 连接断开时移除,不再等待恢复读取
+     *
+     * @param channel
+     */
+    public synchronized void removeChannel(Channel channel) {
+        for (Set<Channel> channels : paused.values()) {
+            channels.remove(channel);
+        }
+    }
+
+    /**
+     * 通道中等待处理的消息数
+     *
+     * @param lane
+     * @return
+     */
+    public int size(MessageLane lane) {
+        return queues.get(lane).size();
+    }
+
+    /**
+     * 通道因队列已满累计丢弃的消息数
+     *
+     * @param lane
+     * @return
+     */
+    public long getDropped(MessageLane lane) {
+        return dropped.get(lane).get();
+    }
+
+    /**
+     * 因该通道积压而暂停读取的连接数
+     *
+     * @param lane
+     * @return
+     */
+    public int getPaused(MessageLane lane) {
+        return paused.get(lane).size();
+    }
+
+    /**
+     * 各个节点因队列已满被丢弃的消息数
+     *
+     * @return
+     */
+    public Map<String, Long> getRejected() {
+        Map<String, Long> result = new HashMap<>();
+        for (Map.Entry<String, AtomicLong> entry : rejected.entrySet()) {
+            result.put(entry.getKey(), entry.getValue().get());
+        }
+        return result;
     }
 }
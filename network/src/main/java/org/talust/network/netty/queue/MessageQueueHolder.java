@@ -31,8 +31,8 @@ import org.talust.common.crypto.Sha256Hash;
 import org.talust.common.model.Message;
 import org.talust.common.model.MessageChannel;
 import org.talust.common.model.MessageType;
+import org.talust.common.tools.DateUtil;
 import org.talust.common.tools.StringUtils;
-import org.talust.common.tools.ThreadPool;
 import org.talust.network.MessageHandler;
 import org.talust.network.MessageValidator;
 import org.talust.network.model.MyChannel;
@@ -40,13 +40,9 @@ import org.talust.network.netty.ChannelContain;
 import org.talust.network.netty.ConnectionManager;
 
 import java.util.*;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.LinkedBlockingQueue;
-import java.util.concurrent.ThreadPoolExecutor;
-import java.util.concurrent.TimeUnit;
 
 /**
- * 消息队列处理器,针对底层通讯层的处理器
+ * 消息队列处理器,针对底层通讯层的处理器,每个消息通道有各自的处理线程
  */
 @Slf4j
 public class MessageQueueHolder {
@@ -61,27 +57,44 @@ public class MessageQueueHolder {
 
     protected ConnectionManager cm = ConnectionManager.get();
     private MessageQueue mq = MessageQueue.get();
-    //构造一个线程池,此线程池用于通讯层收发消息所用
-    private ThreadPoolExecutor threadPool = ThreadPool.get().threadPool;
-
-    public void start() {
-        ExecutorService executorService = new ThreadPoolExecutor(1, 1, 0L, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<Runnable>());
-        executorService.execute(() -> {
-            MessageQueue messageQueue = MessageQueue.get();
-            while (true) {//不断地从消息队列中取出消息进行处理
-                try {
-                    MessageChannel message = messageQueue.takeMessage();
-                    Integer type = message.getMessage().getType();
-                    List<MessageHandler> messageHandler = mapHandlers.get(type);
-                    if (messageHandler != null) {
-                        MessageValidator validator = mapValidators.get(type);
-                        threadPool.execute(new PoolTask(message, validator, messageHandler));
-                    }
-                } catch (Throwable e) {
-                    log.error("消息处理错误:", e);
+    private boolean started;
+
+    public synchronized void start() {
+        if (started) {
+            return;
+        }
+        started = true;
+        for (MessageLane lane : MessageLane.values()) {
+            for (int idx = 0; idx < lane.getWorkers(); idx++) {
+                Thread thread = new Thread(() -> process(lane), "lane-" + lane.name().toLowerCase() + "-" + idx);
+                thread.setPriority(lane.getPriority());
+                thread.setDaemon(true);
+                thread.start();
+            }
+        }
+    }
+
+    /**
+     * 不断地从通道队列中取出消息进行处理
+     *
+     * @param lane
+     */
+    private void process(MessageLane lane) {
+        while (true) {
+            try {
+                MessageChannel message = mq.takeMessage(lane);
+                Integer type = message.getMessage().getType();
+                List<MessageHandler> messageHandler = mapHandlers.get(type);
+                if (messageHandler != null) {
+                    MessageValidator validator = mapValidators.get(type);
+                    new PoolTask(message, validator, messageHandler).run();
                 }
+            } catch (InterruptedException e) {
+                return;
+            } catch (Throwable e) {
+                log.error("消息处理错误:", e);
             }
-        });
+        }
     }
 
     /**
@@ -133,8 +146,7 @@ public class MessageQueueHolder {
 
     /**
      * 广播消息,向本节点所连接的所有节点广播消息
-     * 这里的广播并非是指直接在底层就发送数据,而是多次复制,放入消息队列中
-     * 通过消息队列分发消息,以此达到多线程处理的目的
+     * 消息只编码一次,编码后的内容由各个连接的发送队列共享,广播的开销与连接数无关
      *
      * @param message
      */
@@ -144,20 +156,19 @@ public class MessageQueueHolder {
         //分别向其他各个节点发送消息
         Collection<MyChannel> allChannel = ChannelContain.get().getMyChannels();
         log.info("向网络节点广播消息,当前本节点所连接的网络节点数为:{},消息类型:{}", allChannel.size(), message.getMessage().getType());
-        for (MyChannel channel : allChannel) {//主要是考虑为了提升效率
+        List<String> toIps = new ArrayList<>();
+        for (MyChannel channel : allChannel) {
             if (!selfIp.equals(channel.getRemoteIp())) {
                 if (StringUtils.isNotEmpty(fromChannel) && fromChannel.equals(channel.getRemoteIp())) {
                     //不需要给发送过来的通道再发回去
                     continue;
                 }
-                log.info("------------向ip:{} 广播消息:{}", channel.getRemoteIp(), message.getMessage().getType());
-                MessageChannel mc = new MessageChannel();
-                mc.setMessage(message.getMessage());
-                mc.setToIp(channel.getRemoteIp());
-                mc.setFromIp(selfIp);
-                mq.addMessage(mc);
+                toIps.add(channel.getRemoteIp());
             }
         }
+        log.info("------------向ip:{} 广播消息:{}", toIps, message.getMessage().getType());
+        message.getMessage().setTime(DateUtil.getTimeSecond());
+        ChannelContain.get().sendMessage(toIps, message.getMessage());
     }
 
 }
@@ -29,7 +29,6 @@ import lombok.extern.slf4j.Slf4j;
 import org.talust.common.model.MessageChannel;
 import org.talust.network.MessageHandler;
 import org.talust.network.MessageValidator;
-import org.talust.network.netty.ChannelContain;
 
 import java.io.Serializable;
 import java.util.List;
@@ -54,19 +53,14 @@ public class PoolTask implements Runnable, Serializable {
     @Override
     public void run() {
         try {
-            String toIP = message.getToIp();
-            if (toIP != null && toIP.length() > 0) {
-                //说明接收到的消息是要求往toChannel这个通道发送数据,此种业务逻辑目前暂不进行验证合理性,直接发即可
-                ChannelContain.get().sendMessage(toIP, message.getMessage());
-            } else {//明确要求自身节点进行处理的消息
-                boolean check = true;//
-                if (validator != null) {
-                    check = validator.check(message);
-                }
-                if (check) {//校验正确
-                    for (MessageHandler handler : handlers) {
-                        handler.handle(message);
-                    }
+            //发往其他节点的消息已在放入队列时直接发送,这里只处理要求自身节点进行处理的消息
+            boolean check = true;//
+            if (validator != null) {
+                check = validator.check(message);
+            }
+            if (check) {//校验正确
+                for (MessageHandler handler : handlers) {
+                    handler.handle(message);
                 }
             }
         } catch (Throwable e) {
@@ -30,11 +30,13 @@ import io.netty.channel.ChannelFuture;
 import io.netty.channel.ChannelInitializer;
 import io.netty.channel.ChannelOption;
 import io.netty.channel.EventLoopGroup;
+import io.netty.channel.WriteBufferWaterMark;
 import io.netty.channel.nio.NioEventLoopGroup;
 import io.netty.channel.socket.SocketChannel;
 import io.netty.channel.socket.nio.NioServerSocketChannel;
 import io.netty.handler.timeout.IdleStateHandler;
 import lombok.extern.slf4j.Slf4j;
+import org.talust.common.tools.Configure;
 import org.talust.network.netty.DecodeHandler;
 import org.talust.network.netty.EncodeHandler;
 
@@ -49,6 +51,8 @@ public class NodeServer {
         try {
             ServerBootstrap b = new ServerBootstrap();
             b.group(bossGroup, workerGroup).channel(NioServerSocketChannel.class).option(ChannelOption.SO_BACKLOG, 1024)
+                    .childOption(ChannelOption.WRITE_BUFFER_WATER_MARK,
+                            new WriteBufferWaterMark(Configure.OUTBOUND_LOW_WATER, Configure.OUTBOUND_HIGH_WATER))
                     .childHandler(new ChildChannelHandler());
 
             ChannelFuture f = b.bind(port).sync();
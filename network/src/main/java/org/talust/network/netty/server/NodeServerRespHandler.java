@@ -59,6 +59,12 @@ public class NodeServerRespHandler extends SimpleChannelInboundHandler<Message>
         cc.removeChannel(ctx.channel());
     }
 
+    @Override
+    public void channelWritabilityChanged(ChannelHandlerContext ctx) throws Exception {
+        cc.writabilityChanged(ctx.channel());
+        super.channelWritabilityChanged(ctx);
+    }
+
     @Override
     protected void channelRead0(ChannelHandlerContext ctx, Message msg) {
         if (msg.getType() == MessageType.HEARTBEAT_REQ.getType()) {
@@ -74,7 +80,7 @@ public class NodeServerRespHandler extends SimpleChannelInboundHandler<Message>
             MessageChannel mc = new MessageChannel();
             mc.setMessage(msg);
             mc.setFromIp(remoteIp);
-            mq.addMessage(mc);
+            mq.addMessage(mc, ctx.channel());
         }
     }
 
@@ -82,7 +88,7 @@ public class NodeServerRespHandler extends SimpleChannelInboundHandler<Message>
     public void userEventTriggered(ChannelHandlerContext ctx, Object evt) {
         if (IdleStateEvent.class.isAssignableFrom(evt.getClass())) {
             IdleStateEvent event = (IdleStateEvent) evt;
-            if (event.state() == IdleState.READER_IDLE) {
+            if (event.state() == IdleState.READER_IDLE && ctx.channel().config().isAutoRead()) {//因消息积压暂停读取时不算掉线
                 InetSocketAddress insocket = (InetSocketAddress) ctx.channel().remoteAddress();
                 String remoteIp = insocket.getAddress().getHostAddress();
                 log.error("对方ip:{}掉线了", remoteIp);
@@ -0,0 +1,78 @@
+package org.talust.network.netty;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.Unpooled;
+import io.netty.handler.codec.CorruptedFrameException;
+import junit.framework.TestCase;
+import org.talust.common.model.Message;
+import org.talust.common.tools.SerializationUtil;
+
+import java.util.Arrays;
+
+public class MessageCodecTest extends TestCase {
+
+    public void testSameBytesAsSerializationUtil() {
+        Message full = new Message();
+        full.setType(12);
+        full.setContent("block content".getBytes());
+        full.setSigner(new byte[33]);
+        full.setSignContent(new byte[]{1, 2, 3});
+        full.setTime(1500000000);
+        full.setMsgCount(Long.MAX_VALUE);
+        full.setCodec(1);
+        Message negative = new Message();
+        negative.setType(-1);//负数符号扩展为10个字节
+        negative.setContent(new byte[0]);
+        for (Message message : Arrays.asList(full, negative, new Message())) {
+            byte[] expected = SerializationUtil.serializer(message);
+            ByteBuf buf = Unpooled.buffer();
+            MessageCodec.encode(message, buf);
+            assertEquals(expected.length, MessageCodec.encodedSize(message));
+            assertTrue(Arrays.equals(expected, Arrays.copyOf(buf.array(), buf.writerIndex())));
+
+            Message decoded = MessageCodec.decode(Unpooled.wrappedBuffer(expected), expected.length);
+            assertEquals(message.getType(), decoded.getType());
+            assertTrue(Arrays.equals(message.getContent(), decoded.getContent()));
+            assertTrue(Arrays.equals(message.getSigner(), decoded.getSigner()));
+            assertTrue(Arrays.equals(message.getSignContent(), decoded.getSignContent()));
+            assertEquals(message.getTime(), decoded.getTime());
+            assertEquals(message.getMsgCount(), decoded.getMsgCount());
+            assertEquals(message.getCodec(), decoded.getCodec());
+        }
+    }
+
+    public void testFrame() {
+        Message message = new Message();
+        message.setType(3);
+        message.setContent("frame".getBytes());
+        ByteBuf frame = MessageCodec.encodeFrame(ByteBufAllocator.DEFAULT, message);
+        try {
+            int length = frame.readInt();
+            assertEquals(MessageCodec.encodedSize(message), length);
+            assertEquals("frame", new String(MessageCodec.decode(frame, length).getContent()));
+        } finally {
+            frame.release();
+        }
+    }
+
+    public void testSkipUnknownAndRejectGroup() {
+        //未知的varint字段15与长度字段14被跳过
+        byte[] unknown = {(byte) (15 << 3), 1, (byte) (14 << 3 | 2), 2, 9, 9, (byte) (1 << 3), 7};
+        assertEquals(7, MessageCodec.decode(Unpooled.wrappedBuffer(unknown), unknown.length).getType().intValue());
+
+        byte[] nested = new byte[4096];//嵌套的分组不再逐层递归
+        Arrays.fill(nested, (byte) (15 << 3 | 3));
+        try {
+            MessageCodec.decode(Unpooled.wrappedBuffer(nested), nested.length);
+            fail("分组字段应拒绝");
+        } catch (CorruptedFrameException e) {
+        }
+        byte[] badLength = {(byte) (14 << 3 | 2), 100, 1};
+        try {
+            MessageCodec.decode(Unpooled.wrappedBuffer(badLength), badLength.length);
+            fail("超出帧的字段长度应拒绝");
+        } catch (CorruptedFrameException e) {
+        }
+    }
+}
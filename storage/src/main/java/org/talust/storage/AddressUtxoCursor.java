@@ -0,0 +1,78 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017-2018 talust.org talust.io
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ */
+
+package org.talust.storage;
+
+import org.talust.storage.kv.KvIterator;
+
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * 按地址前缀遍历该地址的未花费交易输出,只读取该前缀范围内的数据,使用完后需要关闭
+ */
+public class AddressUtxoCursor implements Iterator<AddressUtxo>, AutoCloseable {
+    private KvIterator iterator;
+    private byte[] prefix;
+
+    AddressUtxoCursor(ChainDatabase chainDatabase, byte[] address) {
+        prefix = AddressUtxoKey.prefix(address);
+        iterator = chainDatabase.getStore().newIterator(ChainColumn.ADDRESS_UTXO, true);
+        iterator.seek(prefix);
+    }
+
+    @Override
+    public boolean hasNext() {
+        return iterator.isValid() && startsWith(iterator.key());
+    }
+
+    @Override
+    public AddressUtxo next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        byte[] key = iterator.key();
+        AddressUtxo utxo = new AddressUtxo(AddressUtxoKey.decodeTranNumber(key), AddressUtxoKey.decodeItem(key), iterator.value());
+        iterator.next();
+        return utxo;
+    }
+
+    private boolean startsWith(byte[] key) {
+        if (key.length < prefix.length) {
+            return false;
+        }
+        for (int idx = 0; idx < prefix.length; idx++) {
+            if (key[idx] != prefix[idx]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public void close() {
+        iterator.close();
+    }
+}
@@ -0,0 +1,69 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017-2018 talust.org talust.io
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ */
+
+package org.talust.storage;
+
+import org.talust.common.crypto.Sha256Hash;
+
+import java.nio.ByteBuffer;
+
+/**
+ * 地址交易输出索引的键,地址(21字节) + 交易号(8字节大端) + 输出项(4字节大端),
+ * 同一地址的交易输出相邻存放,按地址前缀扫描即可取得该地址的全部交易输出
+ */
+public final class AddressUtxoKey {
+    public static final int PREFIX_LENGTH = 21;//与Utils.getAddress生成的地址长度一致
+    public static final int LENGTH = PREFIX_LENGTH + 8 + 4;
+
+    private AddressUtxoKey() {
+    }
+
+    /**
+     * 地址前缀,长度不是21字节的地址取其hash的前21字节,保证前缀定长
+     *
+     * @param address
+     * @return
+     */
+    public static byte[] prefix(byte[] address) {
+        if (address.length == PREFIX_LENGTH) {
+            return address;
+        }
+        byte[] prefix = new byte[PREFIX_LENGTH];
+        System.arraycopy(Sha256Hash.hash(address), 0, prefix, 0, PREFIX_LENGTH);
+        return prefix;
+    }
+
+    public static byte[] encode(byte[] address, long tranNumber, int item) {
+        return ByteBuffer.allocate(LENGTH).put(prefix(address)).putLong(tranNumber).putInt(item).array();
+    }
+
+    public static long decodeTranNumber(byte[] key) {
+        return ByteBuffer.wrap(key, PREFIX_LENGTH, 8).getLong();
+    }
+
+    public static int decodeItem(byte[] key) {
+        return ByteBuffer.wrap(key, PREFIX_LENGTH + 8, 4).getInt();
+    }
+}
@@ -0,0 +1,307 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017-2018 talust.org talust.io
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ */
+
+package org.talust.storage;
+
+import com.github.luben.zstd.Zstd;
+import com.github.luben.zstd.ZstdDictCompress;
+import com.github.luben.zstd.ZstdDictDecompress;
+import com.github.luben.zstd.ZstdDictTrainer;
+import lombok.extern.slf4j.Slf4j;
+import org.talust.common.tools.Configure;
+import org.talust.storage.kv.KvIterator;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * 区块编码,区块内容使用zstd压缩,存储时使用由最近区块训练出的字典,网络传输时不使用字典.
+ * 编码后的内容以0开头,后跟编码类型,protostuff序列化的区块第一个字节不会为0,因此未编码的区块原样可读
+ */
+@Slf4j
+public class BlockCodec {
+    public static final byte MAGIC = 0;
+    public static final byte ZSTD = 1;//zstd压缩,不使用字典
+    public static final byte ZSTD_DICT = 2;//zstd压缩,使用字典,编码类型后跟4字节字典编号
+    private static final int LEVEL = 3;
+    private static final byte[] DICT_PREFIX = "blockDict-".getBytes();
+    private static final byte[] DICT_CURRENT = "blockDictCurrent".getBytes();
+    private static final int MAX_SAMPLES = 2000;//训练字典最多使用的区块数
+    private static final int MAX_SAMPLE_BYTES = 16 * 1024 * 1024;
+    private static final long CONTENT_SIZE_UNKNOWN = -1;//帧头未记录解压后的长度,即ZSTD_CONTENTSIZE_UNKNOWN
+    private static final long CONTENT_SIZE_ERROR = -2;//不是有效的压缩帧,即ZSTD_CONTENTSIZE_ERROR
+
+    private static BlockCodec instance = new BlockCodec();
+
+    private BlockCodec() {
+    }
+
+    public static BlockCodec get() {
+        return instance;
+    }
+
+    private ChainDatabase chainDatabase = ChainDatabase.get();
+    private Map<Integer, ZstdDictDecompress> decompressDicts = new ConcurrentHashMap<>();
+    private volatile CompressDict current;//当前用于压缩的字典,为null表示还没有字典
+    private ReadWriteLock dictLock = new ReentrantReadWriteLock();//使用字典时持读锁,更换并关闭字典时持写锁
+    private Deque<byte[]> samples = new ArrayDeque<>();
+    private int sampleBytes = 0;
+    private int sinceTrain = 0;
+    private AtomicBoolean training = new AtomicBoolean(false);
+    private ExecutorService trainExecutor = Executors.newSingleThreadExecutor(r -> {
+        Thread thread = new Thread(r, "block-dict-train");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private static class CompressDict {
+        int id;
+        ZstdDictCompress dict;
+
+        CompressDict(int id, byte[] dict) {
+            this.id = id;
+            this.dict = new ZstdDictCompress(dict, LEVEL);
+        }
+    }
+
+    /**
+     * 加载已保存的字典,需在链数据库打开后调用
+     */
+    public synchronized void init() {
+        dictLock.writeLock().lock();
+        try {
+            for (ZstdDictDecompress dict : decompressDicts.values()) {
+                dict.close();
+            }
+            decompressDicts.clear();
+            if (current != null) {
+                current.dict.close();
+                current = null;
+            }
+            try (KvIterator iterator = chainDatabase.getStore().newIterator(ChainColumn.META, false)) {
+                for (iterator.seek(DICT_PREFIX); iterator.isValid() && startsWith(iterator.key(), DICT_PREFIX); iterator.next()) {
+                    int dictId = ByteBuffer.wrap(iterator.key(), DICT_PREFIX.length, 4).getInt();
+                    decompressDicts.put(dictId, new ZstdDictDecompress(iterator.value()));
+                }
+            }
+            byte[] currentId = chainDatabase.get(ChainColumn.META, DICT_CURRENT);
+            if (currentId != null) {
+                int dictId = ByteBuffer.wrap(currentId).getInt();
+                byte[] dict = chainDatabase.get(ChainColumn.META, dictKey(dictId));
+                if (dict != null) {
+                    current = new CompressDict(dictId, dict);
+                }
+            }
+        } finally {
+            dictLock.writeLock().unlock();
+        }
+        log.info("加载区块压缩字典:{} 个,当前字典:{}", decompressDicts.size(), current != null ? current.id : 0);
+    }
+
+    /**
+     * 当前字典已被其他进程更换时重新加载字典
+     */
+    synchronized void refresh() {
+        byte[] currentId = chainDatabase.get(ChainColumn.META, DICT_CURRENT);
+        if (currentId != null && (current == null || current.id != ByteBuffer.wrap(currentId).getInt())) {
+            init();
+        }
+    }
+
+    /**
+     * 编码存储的区块,有字典时使用字典压缩,同时收集样本用于训练新字典
+     *
+     * @param block 原始区块内容
+     * @return
+     */
+    public byte[] encodeForStore(byte[] block) {
+        if (!Configure.BLOCK_COMPRESS) {
+            return block;
+        }
+        addSample(block);
+        dictLock.readLock().lock();
+        try {
+            CompressDict dict = current;
+            if (dict == null) {
+                return encode(block);
+            }
+            byte[] compressed = Zstd.compress(block, dict.dict);
+            return ByteBuffer.allocate(6 + compressed.length).put(MAGIC).put(ZSTD_DICT).putInt(dict.id).put(compressed).array();
+        } finally {
+            dictLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * 不使用字典编码,用于网络传输,对方不需要拥有本节点的字典即可解码
+     *
+     * @param block 原始区块内容
+     * @return
+     */
+    public byte[] encode(byte[] block) {
+        byte[] compressed = Zstd.compress(block, LEVEL);
+        return ByteBuffer.allocate(2 + compressed.length).put(MAGIC).put(ZSTD).put(compressed).array();
+    }
+
+    public static boolean isEncoded(byte[] content) {
+        return content != null && content.length > 1 && content[0] == MAGIC;
+    }
+
+    /**
+     * 解码区块内容,未编码的内容原样返回
+     *
+     * @param content
+     * @return
+     * @throws BlockDecodeException 内容无法解码,或解压后的长度未知或超过单条消息的最大长度
+     */
+    public byte[] decode(byte[] content) {
+        if (!isEncoded(content)) {
+            return content;
+        }
+        byte codec = content[1];
+        if (codec == ZSTD) {
+            return decompress(content, 2, null);
+        } else if (codec == ZSTD_DICT) {
+            if (content.length < 6) {
+                throw new BlockDecodeException("区块内容缺少字典编号");
+            }
+            int dictId = ByteBuffer.wrap(content, 2, 4).getInt();
+            dictLock.readLock().lock();
+            try {
+                ZstdDictDecompress dict = decompressDicts.get(dictId);
+                if (dict == null) {
+                    throw new BlockDecodeException("缺少区块压缩字典:" + dictId);
+                }
+                return decompress(content, 6, dict);
+            } finally {
+                dictLock.readLock().unlock();
+            }
+        }
+        throw new BlockDecodeException("无法识别的区块编码:" + codec);
+    }
+
+    private byte[] decompress(byte[] content, int offset, ZstdDictDecompress dict) {
+        byte[] src = new byte[content.length - offset];
+        System.arraycopy(content, offset, src, 0, src.length);
+        long size = Zstd.getFrameContentSize(src);//长度来自压缩内容的帧头,可能由对端任意填写
+        if (size == CONTENT_SIZE_UNKNOWN) {
+            throw new BlockDecodeException("区块压缩帧头中没有解压后的长度");
+        }
+        if (size == CONTENT_SIZE_ERROR || size < 0) {
+            throw new BlockDecodeException("区块压缩帧头无效:" + size);
+        }
+        if (size > Configure.MAX_FRAME_SIZE) {
+            throw new BlockDecodeException("区块解压后的长度超出限制:" + size);
+        }
+        if (size == 0) {
+            return new byte[0];
+        }
+        try {
+            return dict != null ? Zstd.decompress(src, dict, (int) size) : Zstd.decompress(src, (int) size);
+        } catch (RuntimeException e) {
+            throw new BlockDecodeException("区块解压失败:" + e.getMessage(), e);
+        }
+    }
+
+    private synchronized void addSample(byte[] block) {
+        samples.addLast(block);
+        sampleBytes += block.length;
+        while (samples.size() > MAX_SAMPLES || sampleBytes > MAX_SAMPLE_BYTES) {
+            sampleBytes -= samples.removeFirst().length;
+        }
+        sinceTrain++;
+        if (sinceTrain >= Configure.BLOCK_DICT_TRAIN_INTERVAL && training.compareAndSet(false, true)) {
+            sinceTrain = 0;
+            byte[][] batch = samples.toArray(new byte[0][]);
+            trainExecutor.submit(() -> train(batch));
+        }
+    }
+
+    /**
+     * 使用最近的区块训练新字典,字典保存后作为当前字典,旧字典保留用于解码旧区块
+     *
+     * @param batch
+     */
+    void train(byte[][] batch) {
+        try {
+            int total = 0;
+            for (byte[] sample : batch) {
+                total += sample.length;
+            }
+            ZstdDictTrainer trainer = new ZstdDictTrainer(total, Configure.BLOCK_DICT_SIZE);
+            for (byte[] sample : batch) {
+                trainer.addSample(sample);
+            }
+            byte[] dict = trainer.trainSamples();
+            int dictId = current != null ? current.id + 1 : 1;
+            try (BlockCommit commit = chainDatabase.newCommit()) {
+                commit.put(ChainColumn.META, dictKey(dictId), dict);
+                commit.put(ChainColumn.META, DICT_CURRENT, ByteBuffer.allocate(4).putInt(dictId).array());
+                commit.commit();
+            }
+            CompressDict old;
+            dictLock.writeLock().lock();
+            try {
+                decompressDicts.put(dictId, new ZstdDictDecompress(dict));
+                old = current;
+                current = new CompressDict(dictId, dict);
+            } finally {
+                dictLock.writeLock().unlock();
+            }
+            if (old != null) {//已没有线程在使用旧字典压缩,释放其本地内存
+                old.dict.close();
+            }
+            log.info("使用:{} 个区块训练出新的区块压缩字典:{},大小:{}", batch.length, dictId, dict.length);
+        } catch (Throwable e) {
+            log.error("训练区块压缩字典失败", e);
+        } finally {
+            training.set(false);
+        }
+    }
+
+    private static byte[] dictKey(int dictId) {
+        return ByteBuffer.allocate(DICT_PREFIX.length + 4).put(DICT_PREFIX).putInt(dictId).array();
+    }
+
+    private static boolean startsWith(byte[] key, byte[] prefix) {
+        if (key.length < prefix.length) {
+            return false;
+        }
+        for (int idx = 0; idx < prefix.length; idx++) {
+            if (key[idx] != prefix[idx]) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
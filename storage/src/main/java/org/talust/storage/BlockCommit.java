@@ -0,0 +1,187 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017-2018 talust.org talust.io
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ */
+
+package org.talust.storage;
+
+import lombok.extern.slf4j.Slf4j;
+import org.talust.common.tools.Configure;
+import org.talust.storage.kv.KvBatch;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+/**
+ * 区块提交,一个区块产生的所有写操作(区块内容,最新区块hash,高度索引,交易输出,帐户信息等)
+ * 先收集在同一个写批次中,最后一次性写入并同步WAL,保证区块要么完整应用要么完全不应用
+ */
+@Slf4j
+public class BlockCommit implements AutoCloseable {
+    private static final Object FILE_TIP_LOCK = new Object();//区块文件末尾位置按提交的先后顺序写入,不会后退
+
+    private ChainDatabase chainDatabase;
+    private KvBatch batch;
+    private BlockFileStore fileStore;//本次提交中追加过区块内容的区块文件,写入索引前需先落盘
+    private boolean committed = false;
+    private UndoRecord undo;//区块的撤销记录,为null时不记录
+    private int undoHeight;
+    private Deque<Integer> undoSavePoints = new ArrayDeque<>();
+    private UtxoCache.Changes utxoChanges;//本次提交中对交易输出的修改,写入成功后合并到交易输出缓存
+
+    BlockCommit(ChainDatabase chainDatabase) {
+        this.chainDatabase = chainDatabase;
+        this.batch = chainDatabase.getStore().newBatch();
+    }
+
+    /**
+     * 为该区块记录撤销记录,之后对可回滚列族的写操作都会记录原值,提交时与区块数据一起写入
+     *
+     * @param height 区块高度
+     */
+    public void recordUndo(int height) {
+        this.undo = new UndoRecord();
+        this.undoHeight = height;
+    }
+
+    public void put(ChainColumn column, byte[] key, byte[] value) {
+        if (undo != null && column.isUndoable()) {
+            undo.restore(column, key, get(column, key));
+        }
+        batch.put(column, key, value);
+    }
+
+    public void merge(ChainColumn column, byte[] key, byte[] value) {
+        if (undo != null && column.isUndoable()) {//只有余额使用合并写入
+            undo.negate(column, key, value);
+        }
+        batch.merge(column, key, value);
+    }
+
+    public void delete(ChainColumn column, byte[] key) {
+        if (undo != null && column.isUndoable()) {
+            undo.restore(column, key, get(column, key));
+        }
+        batch.delete(column, key);
+    }
+
+    /**
+     * 读取数据,优先读取本次提交中尚未写入的数据,以便同一区块内的后续交易能看到前面交易的修改
+     *
+     * @param column
+     * @param key
+     * @return
+     */
+    public byte[] get(ChainColumn column, byte[] key) {
+        return batch.get(column, key);
+    }
+
+    UtxoCache.Changes utxoChanges() {
+        if (utxoChanges == null) {
+            utxoChanges = new UtxoCache.Changes();
+        }
+        return utxoChanges;
+    }
+
+    void setSavePoint() {
+        batch.setSavePoint();
+        if (undo != null) {
+            undoSavePoints.push(undo.size());
+        }
+    }
+
+    void rollbackToSavePoint() {
+        batch.rollbackToSavePoint();
+        if (undo != null && !undoSavePoints.isEmpty()) {
+            undo.truncate(undoSavePoints.pop());
+        }
+    }
+
+    /**
+     * 登记需要在写入索引前落盘的区块文件,提交时同时写入区块文件的末尾位置
+     *
+     * @param fileStore
+     */
+    void syncBeforeCommit(BlockFileStore fileStore) {
+        this.fileStore = fileStore;
+    }
+
+    /**
+     * 本次提交中的写操作数
+     *
+     * @return
+     */
+    public int count() {
+        return batch.count();
+    }
+
+    /**
+     * 一次性写入本次提交的所有数据,只产生一次WAL同步,
+     * 区块内容先在区块文件中落盘,再写入指向它的索引
+     */
+    public void commit() {
+        if (committed) {
+            throw new IllegalStateException("区块提交已经写入,不能重复提交");
+        }
+        if (utxoChanges != null) {//交易输出的修改先写入批次,以便同时记录撤销
+            UtxoCache.get().flush(this, utxoChanges);
+        }
+        if (undo != null) {
+            put(ChainColumn.UNDO, HeightKey.encode(undoHeight), undo.encode());
+            if (undoHeight > Configure.UNDO_DEPTH) {//只保留最近的撤销记录
+                delete(ChainColumn.UNDO, HeightKey.encode(undoHeight - Configure.UNDO_DEPTH));
+            }
+        }
+        chainDatabase.getCommitLock().readLock().lock();
+        try {
+            if (fileStore != null) {
+                //末尾位置在锁内读取并写入,先提交的区块不会用更小的位置覆盖后提交的区块写入的位置
+                synchronized (FILE_TIP_LOCK) {
+                    batch.put(ChainColumn.META, BlockStorage.BLOCK_FILE_TIP, fileStore.tip().encode());
+                    fileStore.sync();
+                    batch.write(true);
+                }
+            } else {
+                batch.write(true);
+            }
+            committed = true;
+        } catch (IOException e) {
+            log.error("区块文件落盘失败", e);
+            throw new IllegalStateException(e.getMessage(), e);
+        } catch (RuntimeException e) {
+            log.error("区块提交写入失败,写操作数:{}", batch.count(), e);
+            throw e;
+        } finally {
+            chainDatabase.getCommitLock().readLock().unlock();
+        }
+        if (utxoChanges != null) {
+            UtxoCache.get().merge(utxoChanges);
+        }
+    }
+
+    @Override
+    public void close() {
+        batch.close();
+    }
+}
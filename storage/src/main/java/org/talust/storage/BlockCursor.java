@@ -0,0 +1,103 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017-2018 talust.org talust.io
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ */
+
+package org.talust.storage;
+
+import org.talust.storage.kv.KvIterator;
+import org.talust.storage.kv.KvSnapshot;
+
+import java.io.IOException;
+import java.util.*;
+
+/**
+ * 按高度顺序遍历区块,高度索引使用一个迭代器顺序读取,区块位置按批次一次性读取,
+ * 区块内容从内存映射的区块文件中读取,整个遍历过程基于同一个快照,使用完后需要关闭
+ */
+public class BlockCursor implements Iterator<StoredBlock>, AutoCloseable {
+    private static final int BATCH_SIZE = 64;//每批读取的区块数
+
+    private BlockFileStore fileStore;
+    private KvSnapshot snapshot;
+    private KvIterator iterator;
+    private int toHeight;
+    private Deque<StoredBlock> buffer = new ArrayDeque<>();
+
+    BlockCursor(ChainDatabase chainDatabase, BlockFileStore fileStore, int fromHeight, int toHeight) {
+        this.fileStore = fileStore;
+        this.toHeight = toHeight;
+        snapshot = chainDatabase.getStore().getSnapshot();
+        iterator = snapshot.newIterator(ChainColumn.HEIGHT_INDEX);
+        iterator.seek(HeightKey.encode(fromHeight));
+    }
+
+    @Override
+    public boolean hasNext() {
+        if (buffer.isEmpty()) {
+            fill();
+        }
+        return !buffer.isEmpty();
+    }
+
+    @Override
+    public StoredBlock next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        return buffer.poll();
+    }
+
+    private void fill() {
+        List<Integer> heights = new ArrayList<>(BATCH_SIZE);
+        List<byte[]> hashes = new ArrayList<>(BATCH_SIZE);
+        while (iterator.isValid() && heights.size() < BATCH_SIZE) {
+            int height = HeightKey.decode(iterator.key());
+            if (height > toHeight) {
+                break;
+            }
+            heights.add(height);
+            hashes.add(iterator.value());
+            iterator.next();
+        }
+        if (hashes.isEmpty()) {
+            return;
+        }
+        try {
+            List<byte[]> locations = snapshot.multiGet(ChainColumn.BLOCKS, hashes);
+            for (int idx = 0; idx < hashes.size(); idx++) {
+                byte[] location = locations.get(idx);
+                byte[] content = location != null ? fileStore.read(BlockLocation.decode(location)) : null;
+                buffer.add(new StoredBlock(heights.get(idx), hashes.get(idx), content));
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException(e.getMessage(), e);
+        }
+    }
+
+    @Override
+    public void close() {
+        iterator.close();
+        snapshot.close();
+    }
+}
@@ -0,0 +1,388 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017-2018 talust.org talust.io
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ */
+
+package org.talust.storage;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 区块文件存储,区块内容以追加方式写入分段的blk-NNNNN.dat文件,读取时通过内存映射直接读取,
+ * RocksDB中只保存区块hash到文件位置的索引,避免压缩时反复重写区块内容.
+ * 每个区块文件对应一段连续的区块高度,可以分布在多个数据目录中,新的区块文件按编号轮流放到各个写入目录,
+ * 相邻高度段位于不同的磁盘上,同步写入与读取旧区块可以并行;已封存的区块文件可以在运行中移动到归档目录
+ */
+@Slf4j
+public class BlockFileStore {
+    private static final String TEMP_SUFFIX = ".tmp";
+    private String[] dirs;//写入目录,新的区块文件按编号轮流放到这些目录
+    private String archiveDir;//归档目录,只存放移动过来的已封存区块文件
+    private long maxFileSize;
+    private volatile Map<Integer, File> routes = new ConcurrentHashMap<>();//区块文件编号到所在文件的路由
+    private int currentFile;//当前追加写入的文件编号
+    private long currentSize;//当前追加写入文件的大小
+    private FileChannel currentChannel;
+    private Map<Integer, MappedByteBuffer> mapped = new ConcurrentHashMap<>();
+
+    public BlockFileStore(String dir, long maxFileSize) {
+        this(new String[]{dir}, null, maxFileSize);
+    }
+
+    /**
+     * @param dirs 写入目录
+     * @param archiveDir 归档目录,为null时不归档
+     * @param maxFileSize 单个区块文件的最大大小
+     */
+    public BlockFileStore(String[] dirs, String archiveDir, long maxFileSize) {
+        this.dirs = dirs;
+        this.archiveDir = archiveDir;
+        this.maxFileSize = maxFileSize;
+    }
+
+    /**
+     * 打开区块文件存储,tip为上次成功提交后的文件末尾位置,之后的内容是未提交成功的数据,直接截断
+     *
+     * @param tip
+     * @throws IOException
+     */
+    public synchronized void open(BlockLocation tip) throws IOException {
+        for (String dir : dirs) {
+            new File(dir).mkdirs();
+        }
+        if (archiveDir != null) {
+            new File(archiveDir).mkdirs();
+        }
+        scan(true);
+        currentFile = tip != null ? tip.getFile() : 0;
+        long end = tip != null ? tip.getOffset() : 0;
+        currentChannel = new RandomAccessFile(segment(currentFile), "rw").getChannel();
+        if (currentChannel.size() > end) {
+            log.warn("区块文件:{} 存在未提交的数据,截断至:{}", segment(currentFile).getName(), end);
+            currentChannel.truncate(end);
+        }
+        currentSize = end;
+        for (Integer idx : routes.keySet()) {
+            if (idx > currentFile) {
+                log.warn("删除未提交的区块文件:{}", segment(idx).getAbsolutePath());
+                routes.remove(idx).delete();
+            }
+        }
+        routes.put(currentFile, segment(currentFile));
+        log.info("区块文件存储路径为:{},归档路径:{},当前文件:{},大小:{}", String.join(",", dirs), archiveDir, currentFile, currentSize);
+    }
+
+    /**
+     * 以只读方式打开区块文件存储,不截断也不删除任何文件,用于跟随模式读取主节点写入的区块文件
+     */
+    public synchronized void openReadOnly() {
+        scan(false);
+        log.info("以只读方式打开区块文件存储:{},归档路径:{}", String.join(",", dirs), archiveDir);
+    }
+
+    /**
+     * 扫描所有数据目录重建区块文件路由,同一个区块文件同时存在于归档目录与写入目录时,
+     * 说明移动已完成但来不及删除原文件,以归档目录中的为准
+     *
+     * @param repair 是否删除移动残留的文件,只读打开时不修改任何文件
+     */
+    private void scan(boolean repair) {
+        Map<Integer, File> found = new ConcurrentHashMap<>();
+        for (String dir : dirs) {
+            scanDir(new File(dir), found, repair);
+        }
+        if (archiveDir != null) {
+            File[] files = new File(archiveDir).listFiles();
+            for (File file : files != null ? files : new File[0]) {
+                int idx = segmentIndex(file.getName());
+                if (idx < 0) {
+                    if (repair && file.getName().endsWith(TEMP_SUFFIX)) {
+                        file.delete();//未完成的移动
+                    }
+                    continue;
+                }
+                File old = found.put(idx, file);
+                if (old != null && repair) {
+                    log.warn("区块文件:{} 已移动到归档目录,删除原文件", old.getAbsolutePath());
+                    old.delete();
+                }
+            }
+        }
+        routes = found;
+    }
+
+    private void scanDir(File dir, Map<Integer, File> found, boolean repair) {
+        File[] files = dir.listFiles();
+        for (File file : files != null ? files : new File[0]) {
+            int idx = segmentIndex(file.getName());
+            if (idx >= 0) {
+                found.put(idx, file);
+            } else if (repair && file.getName().endsWith(TEMP_SUFFIX)) {
+                file.delete();
+            }
+        }
+    }
+
+    /**
+     * 追加区块内容,返回区块所在位置,追加后需调用sync才能保证数据落盘
+     *
+     * @param content
+     * @return
+     * @throws IOException
+     */
+    public synchronized BlockLocation append(byte[] content) throws IOException {
+        if (currentChannel == null) {
+            throw new IOException("区块文件存储未打开或为只读");
+        }
+        if (currentSize > 0 && currentSize + content.length > maxFileSize) {
+            roll();
+        }
+        BlockLocation location = new BlockLocation(currentFile, currentSize, content.length);
+        ByteBuffer buffer = ByteBuffer.wrap(content);
+        long position = currentSize;
+        while (buffer.hasRemaining()) {
+            position += currentChannel.write(buffer, position);
+        }
+        currentSize = position;
+        return location;
+    }
+
+    /**
+     * 将已追加的数据刷到磁盘
+     *
+     * @throws IOException
+     */
+    public synchronized void sync() throws IOException {
+        if (currentChannel != null) {
+            currentChannel.force(false);
+        }
+    }
+
+    /**
+     * 当前文件末尾位置,与区块索引一起提交,重启时据此截断未提交的数据
+     *
+     * @return
+     */
+    public synchronized BlockLocation tip() {
+        return new BlockLocation(currentFile, currentSize, 0);
+    }
+
+    /**
+     * 计算回滚区块后的文件末尾位置.被回滚的区块都在正在写入的文件中时退回到其中最早的区块处;
+     * 跨越到已封存的文件时不改写已封存的文件(快照会硬链接它们,归档时不加锁复制),
+     * 改为从新的区块文件开始写入,已封存文件中被回滚的内容保留为无效数据
+     *
+     * @param earliest 被回滚区块中最早的位置
+     * @return 回滚后的文件末尾位置
+     */
+    public synchronized BlockLocation rewindTip(BlockLocation earliest) {
+        if (earliest.getFile() >= currentFile) {
+            return new BlockLocation(currentFile, Math.min(earliest.getOffset(), currentSize), 0);
+        }
+        return new BlockLocation(currentSize > 0 ? currentFile + 1 : currentFile, 0, 0);
+    }
+
+    /**
+     * 回滚提交写入后将写入位置移到rewindTip计算出的位置,之后追加的区块覆盖正在写入的文件中被回滚的内容.
+     * 文件不截断,避免正在读取的内存映射越过文件末尾
+     *
+     * @param tip 回滚后已提交的文件末尾位置
+     * @throws IOException
+     */
+    public synchronized void rewind(BlockLocation tip) throws IOException {
+        if (currentChannel == null) {
+            return;
+        }
+        if (tip.getFile() == currentFile && tip.getOffset() < currentSize) {
+            currentSize = tip.getOffset();
+            log.info("区块文件写入位置退回到文件:{},偏移:{}", segmentName(currentFile), currentSize);
+        } else if (tip.getFile() == currentFile + 1) {
+            roll();
+        }
+    }
+
+    /**
+     * 读取区块内容,返回内存映射文件中对应区域的只读视图,不复制数据
+     *
+     * @param location
+     * @return
+     * @throws IOException
+     */
+    public ByteBuffer readBuffer(BlockLocation location) throws IOException {
+        long end = location.getOffset() + location.getLength();
+        MappedByteBuffer buffer = mapped.get(location.getFile());
+        if (buffer == null || buffer.capacity() < end) {
+            buffer = map(location.getFile(), end);
+        }
+        ByteBuffer slice = buffer.asReadOnlyBuffer();
+        slice.position((int) location.getOffset());
+        slice.limit((int) end);
+        return slice.slice();
+    }
+
+    public byte[] read(BlockLocation location) throws IOException {
+        ByteBuffer buffer = readBuffer(location);
+        byte[] content = new byte[buffer.remaining()];
+        buffer.get(content);
+        return content;
+    }
+
+    private synchronized MappedByteBuffer map(int file, long end) throws IOException {
+        MappedByteBuffer buffer = mapped.get(file);
+        if (buffer != null && buffer.capacity() >= end) {
+            return buffer;
+        }
+        if (!segment(file).exists() && currentChannel == null) {//只读打开时区块文件可能已被主节点移动
+            scan(false);
+        }
+        try (FileChannel channel = new RandomAccessFile(segment(file), "r").getChannel()) {
+            long size = channel.size();
+            if (size < end) {
+                throw new IOException("区块文件:" + segment(file).getName() + " 长度不足,需要:" + end + ",实际:" + size);
+            }
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+        }
+        mapped.put(file, buffer);
+        return buffer;
+    }
+
+    private void roll() throws IOException {
+        currentChannel.force(false);
+        currentChannel.close();
+        currentFile++;
+        currentSize = 0;
+        routes.put(currentFile, segment(currentFile));
+        currentChannel = new RandomAccessFile(segment(currentFile), "rw").getChannel();
+        log.info("切换到新的区块文件:{}", segment(currentFile).getAbsolutePath());
+    }
+
+    /**
+     * 将已封存的区块文件移动到归档目录,复制期间照常读取原文件,复制完成并落盘后再切换路由,
+     * 已映射的原文件在删除后仍可读取,新的读取映射归档目录中的文件
+     *
+     * @param file
+     * @return 是否移动
+     * @throws IOException
+     */
+    public boolean archive(int file) throws IOException {
+        File source;
+        synchronized (this) {
+            source = routes.get(file);
+            if (archiveDir == null || currentChannel == null || file >= currentFile || source == null || isArchived(file)) {
+                return false;
+            }
+        }
+        File temp = new File(archiveDir, segmentName(file) + TEMP_SUFFIX);
+        Files.copy(source.toPath(), temp.toPath(), StandardCopyOption.REPLACE_EXISTING);//已封存的文件不再修改,复制时无需加锁
+        try (FileChannel channel = new RandomAccessFile(temp, "rw").getChannel()) {
+            channel.force(true);
+        }
+        File target = new File(archiveDir, segmentName(file));
+        synchronized (this) {
+            if (!source.equals(routes.get(file))) {//复制期间已被裁剪
+                temp.delete();
+                return false;
+            }
+            Files.move(temp.toPath(), target.toPath(), StandardCopyOption.ATOMIC_MOVE);
+            routes.put(file, target);
+            mapped.remove(file);
+        }
+        if (!source.delete()) {
+            log.warn("删除已归档的区块文件:{} 失败", source.getAbsolutePath());
+        }
+        log.info("区块文件:{} 已移动到归档目录:{}", segmentName(file), archiveDir);
+        return true;
+    }
+
+    /**
+     * 区块文件是否已在归档目录中
+     *
+     * @param file
+     * @return
+     */
+    public boolean isArchived(int file) {
+        File route = routes.get(file);
+        return archiveDir != null && route != null && route.getParentFile().equals(new File(archiveDir));
+    }
+
+    /**
+     * 删除已封存的区块文件,正在写入的文件不能删除
+     *
+     * @param file
+     * @return 是否删除
+     */
+    public synchronized boolean delete(int file) {
+        if (file >= currentFile) {
+            return false;
+        }
+        mapped.remove(file);
+        File route = routes.remove(file);
+        return route != null && route.delete();
+    }
+
+    /**
+     * 区块文件所在的路径,尚未创建的区块文件按编号轮流放到写入目录
+     *
+     * @param file
+     * @return
+     */
+    File segment(int file) {
+        File route = routes.get(file);
+        return route != null ? route : new File(dirs[file % dirs.length], segmentName(file));
+    }
+
+    static String segmentName(int file) {
+        return String.format("blk-%05d.dat", file);
+    }
+
+    private static int segmentIndex(String name) {
+        if (!name.startsWith("blk-") || !name.endsWith(".dat")) {
+            return -1;
+        }
+        try {
+            return Integer.parseInt(name.substring(4, name.length() - 4));
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    public synchronized void close() throws IOException {
+        if (currentChannel != null) {
+            currentChannel.force(false);
+            currentChannel.close();
+            currentChannel = null;
+        }
+        mapped.clear();
+    }
+}
@@ -25,16 +25,27 @@
 
 package org.talust.storage;
 
-import org.talust.common.tools.Configure;
 import lombok.extern.slf4j.Slf4j;
-import org.rocksdb.*;
-import org.rocksdb.util.SizeUnit;
+import org.talust.common.tools.Configure;
+import org.talust.common.tools.Constant;
+import org.talust.storage.kv.KvIterator;
 
-import java.io.File;
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 
-//区块存储
+//区块存储,区块内容追加写入区块文件,链数据库中保存区块位置与区块高度索引
 @Slf4j
 public class BlockStorage {
+    static final byte[] BLOCK_FILE_TIP = "blockFileTip".getBytes();//区块文件已提交的末尾位置
+    private static final byte[] PRUNED_HEIGHT = "prunedHeight".getBytes();//区块内容已被裁剪的最高高度
     private static BlockStorage instance = new BlockStorage();
 
     private BlockStorage() {
@@ -44,49 +55,482 @@ public class BlockStorage {
         return instance;
     }
 
-    private RocksDB db;
-    final Options options = new Options()
-            .setCreateIfMissing(true)
-            .setWriteBufferSize(8 * SizeUnit.KB)
-            .setMaxWriteBufferNumber(3)
-            .setMaxBackgroundCompactions(10);
+    private ChainDatabase chainDatabase = ChainDatabase.get();
+    private BlockCodec blockCodec = BlockCodec.get();
+    private StorageWriter storageWriter = StorageWriter.get();
+    private BlockFileStore fileStore;
+    private volatile int prunedHeight = 0;
+    private AtomicBoolean archiving = new AtomicBoolean();//是否有归档线程正在移动区块文件
+    private ReentrantReadWriteLock segmentLock = new ReentrantReadWriteLock();//裁剪与归档持有读锁,制作快照链接区块文件时持有写锁
 
-    static {
-        try {
-            RocksDB.loadLibrary();
-        } catch (Exception e) {
-            e.printStackTrace();
+    public synchronized void init() throws IOException {
+        chainDatabase.init();
+        if (fileStore != null) {
+            return;
+        }
+        blockCodec.init();
+        byte[] tip = chainDatabase.get(ChainColumn.META, BLOCK_FILE_TIP);
+        BlockFileStore store = new BlockFileStore(blockDirs(), Configure.BLOCK_ARCHIVE_DIR, Configure.BLOCK_FILE_SIZE);
+        if (Configure.FOLLOWER) {//区块文件由主节点写入
+            store.openReadOnly();
+        } else {
+            store.open(tip != null ? BlockLocation.decode(tip) : null);
+        }
+        fileStore = store;
+        loadPrunedHeight();
+    }
+
+    private static String[] blockDirs() {
+        List<String> dirs = new ArrayList<>();
+        dirs.add(Configure.DATA_BLOCK);
+        if (Configure.BLOCK_DIRS != null) {
+            for (String dir : Configure.BLOCK_DIRS.split(",")) {
+                if (!dir.trim().isEmpty()) {
+                    dirs.add(dir.trim());
+                }
+            }
+        }
+        return dirs.toArray(new String[0]);
+    }
+
+    /**
+     * 跟随模式下追赶主节点后重新加载裁剪高度与压缩字典
+     */
+    void refresh() {
+        loadPrunedHeight();
+        blockCodec.refresh();
+    }
+
+    private void loadPrunedHeight() {
+        byte[] pruned = chainDatabase.get(ChainColumn.META, PRUNED_HEIGHT);
+        prunedHeight = pruned != null ? HeightKey.decode(pruned) : 0;
+    }
+
+    /**
+     * 已提交的区块文件末尾位置
+     *
+     * @return
+     */
+    BlockLocation committedTip() {
+        byte[] tip = chainDatabase.get(ChainColumn.META, BLOCK_FILE_TIP);
+        return tip != null ? BlockLocation.decode(tip) : null;
+    }
+
+    BlockFileStore getFileStore() {
+        return fileStore;
+    }
+
+    public synchronized void close() throws IOException {
+        if (fileStore != null) {
+            fileStore.close();
+            fileStore = null;
         }
     }
 
-    public void init() {
+    /**
+     * 单独存储一个区块,由存储写入线程合并提交,区块内容落盘后再写入位置索引
+     *
+     * @param key
+     * @param value
+     * @return 数据落盘后完成
+     */
+    public CompletableFuture<Void> put(byte[] key, byte[] value) {
+        return storageWriter.submit(commit -> put(commit, key, value));
+    }
+
+    /**
+     * 区块内容压缩后追加到区块文件,位置索引随本次提交一起写入,文件末尾位置在提交时写入
+     *
+     * @param commit
+     * @param key
+     * @param value 原始区块内容
+     */
+    public void put(BlockCommit commit, byte[] key, byte[] value) {
         try {
-            String dataBlock = Configure.DATA_BLOCK;
-            File file = new File(dataBlock);
-            if (!file.exists()) {
-                file.mkdirs();
+            BlockLocation location = fileStore.append(blockCodec.encodeForStore(value));
+            commit.put(ChainColumn.BLOCKS, key, location.encode());
+            commit.syncBeforeCommit(fileStore);
+        } catch (IOException e) {
+            log.error("区块内容写入区块文件失败", e);
+            throw new IllegalStateException(e.getMessage(), e);
+        }
+    }
+
+    /**
+     * 回滚时删除被回滚区块的位置索引与区块头,已提交的区块文件末尾位置按被回滚区块中最早的位置重新计算,
+     * 跨越已封存的文件时指向新的区块文件,见BlockFileStore.rewindTip
+     *
+     * @param commit
+     * @param hashes 被回滚的区块hash
+     * @return 回滚后的文件末尾位置,被回滚的区块都没有区块内容时返回null
+     */
+    BlockLocation removeBlocks(BlockCommit commit, List<byte[]> hashes) {
+        BlockLocation earliest = null;
+        for (byte[] hash : hashes) {
+            byte[] location = chainDatabase.get(ChainColumn.BLOCKS, hash);
+            if (location != null) {
+                BlockLocation block = BlockLocation.decode(location);
+                if (earliest == null || block.getFile() < earliest.getFile() || (block.getFile() == earliest.getFile() && block.getOffset() < earliest.getOffset())) {
+                    earliest = block;
+                }
+                commit.delete(ChainColumn.BLOCKS, hash);
             }
-            log.info("保存块数据路径为:{}", dataBlock);
-            db = RocksDB.open(options, dataBlock);
-        } catch (RocksDBException e) {
-            e.printStackTrace();
+            commit.delete(ChainColumn.HEADERS, hash);
+        }
+        if (earliest == null || fileStore == null) {
+            return null;
         }
+        BlockLocation tip = fileStore.rewindTip(earliest);
+        commit.put(ChainColumn.META, BLOCK_FILE_TIP, tip.encode());
+        return tip;
     }
 
-    public void put(byte[] key, byte[] value) {
+    /**
+     * 回滚提交写入后将区块文件的写入位置移到removeBlocks计算出的位置
+     *
+     * @param tip
+     */
+    void rewind(BlockLocation tip) {
+        if (fileStore == null) {
+            return;
+        }
         try {
-            db.put(key, value);
-        } catch (Exception e) {
+            fileStore.rewind(tip);
+        } catch (IOException e) {
+            log.error("退回区块文件写入位置失败", e);
+            throw new IllegalStateException(e.getMessage(), e);
         }
     }
 
+    /**
+     * 获取原始区块内容,压缩存储的区块在此时解压
+     *
+     * @param key
+     * @return
+     */
     public byte[] get(byte[] key) {
+        return blockCodec.decode(getStored(key));
+    }
+
+    /**
+     * 获取区块存储的内容,可能是压缩后的内容,需通过BlockCodec解码
+     *
+     * @param key
+     * @return
+     */
+    public byte[] getStored(byte[] key) {
+        ByteBuffer buffer = getStoredBuffer(key);
+        if (buffer == null) {
+            return null;
+        }
+        byte[] content = new byte[buffer.remaining()];
+        buffer.get(content);
+        return content;
+    }
+
+    /**
+     * 获取原始区块内容的只读视图,未压缩的区块直接返回内存映射区块文件中的视图,不复制数据
+     *
+     * @param key
+     * @return
+     */
+    public ByteBuffer getBuffer(byte[] key) {
+        ByteBuffer buffer = getStoredBuffer(key);
+        if (buffer == null || buffer.remaining() < 2 || buffer.get(buffer.position()) != BlockCodec.MAGIC) {
+            return buffer;
+        }
+        byte[] stored = new byte[buffer.remaining()];
+        buffer.get(stored);
+        return ByteBuffer.wrap(blockCodec.decode(stored)).asReadOnlyBuffer();
+    }
+
+    /**
+     * 按位置读取原始区块内容,位置所在的文件已被裁剪时返回null
+     *
+     * @param location
+     * @return
+     */
+    byte[] read(byte[] location) {
         try {
-            return db.get(key);
-        } catch (Exception e) {
-            e.printStackTrace();
+            return blockCodec.decode(fileStore.read(BlockLocation.decode(location)));
+        } catch (IOException e) {
+            log.error("读取区块文件失败", e);
         }
         return null;
     }
 
+    private ByteBuffer getStoredBuffer(byte[] key) {
+        byte[] location = chainDatabase.get(ChainColumn.BLOCKS, key);
+        if (location == null) {
+            return null;
+        }
+        try {
+            return fileStore.readBuffer(BlockLocation.decode(location));
+        } catch (IOException e) {
+            log.error("读取区块文件失败", e);
+        }
+        return null;
+    }
+
+    /**
+     * 存储区块头,区块头与区块内容分开存储,校验时只需读取很小的区块头
+     *
+     * @param commit
+     * @param hash
+     * @param header
+     */
+    public void putHeader(BlockCommit commit, byte[] hash, byte[] header) {
+        commit.put(ChainColumn.HEADERS, hash, header);
+    }
+
+    public CompletableFuture<Void> putHeader(byte[] hash, byte[] header) {
+        return storageWriter.put(ChainColumn.HEADERS, hash, header);
+    }
+
+    public byte[] getHeader(byte[] hash) {
+        return chainDatabase.get(ChainColumn.HEADERS, hash);
+    }
+
+    /**
+     * 存储区块高度对应的区块hash
+     *
+     * @param height
+     * @param hash
+     */
+    public CompletableFuture<Void> putHeightHash(int height, byte[] hash) {
+        return storageWriter.put(ChainColumn.HEIGHT_INDEX, HeightKey.encode(height), hash);
+    }
+
+    public void putHeightHash(BlockCommit commit, int height, byte[] hash) {
+        commit.put(ChainColumn.HEIGHT_INDEX, HeightKey.encode(height), hash);
+    }
+
+    /**
+     * 获取区块高度对应的区块hash
+     *
+     * @param height
+     * @return
+     */
+    public byte[] getHashByHeight(int height) {
+        return chainDatabase.get(ChainColumn.HEIGHT_INDEX, HeightKey.encode(height));
+    }
+
+    public CompletableFuture<Void> setNowBlockHash(byte[] hash) {
+        return storageWriter.put(ChainColumn.META, Constant.NOW_BLOCK_HASH, hash);
+    }
+
+    public void setNowBlockHash(BlockCommit commit, byte[] hash) {
+        commit.put(ChainColumn.META, Constant.NOW_BLOCK_HASH, hash);
+    }
+
+    public byte[] getNowBlockHash() {
+        return chainDatabase.get(ChainColumn.META, Constant.NOW_BLOCK_HASH);
+    }
+
+    /**
+     * 裁剪区块内容,删除早于最新高度减去裁剪深度的区块内容,区块头与高度索引保留,
+     * 区块内容以整个区块文件为单位删除,只删除其中全部区块都可以裁剪的区块文件,正在制作快照时不裁剪
+     *
+     * @param tipHeight 当前最新区块高度
+     * @param depth 保留的区块深度
+     * @return 本次裁剪的区块数
+     */
+    public synchronized int prune(int tipHeight, int depth) {
+        int target = tipHeight - depth;
+        if (depth <= 0 || target <= prunedHeight) {
+            return 0;
+        }
+        if (!segmentLock.readLock().tryLock()) {//正在制作快照,下一个区块再裁剪
+            return 0;
+        }
+        try {
+            return prune(target);
+        } finally {
+            segmentLock.readLock().unlock();
+        }
+    }
+
+    private int prune(int target) {
+        byte[] keepHash = getHashByHeight(target + 1);
+        byte[] keepLocation = keepHash != null ? chainDatabase.get(ChainColumn.BLOCKS, keepHash) : null;
+        if (keepLocation == null) {
+            return 0;
+        }
+        int keepFile = BlockLocation.decode(keepLocation).getFile();//该文件及之后的文件需要保留
+        int count = 0;
+        int lastPruned = prunedHeight;
+        try (BlockCommit commit = chainDatabase.newCommit();
+             KvIterator iterator = chainDatabase.getStore().newIterator(ChainColumn.HEIGHT_INDEX, false)) {
+            for (iterator.seek(HeightKey.encode(prunedHeight + 1)); iterator.isValid(); iterator.next()) {
+                int height = HeightKey.decode(iterator.key());
+                if (height > target) {
+                    break;
+                }
+                byte[] location = chainDatabase.get(ChainColumn.BLOCKS, iterator.value());
+                if (location != null) {
+                    if (BlockLocation.decode(location).getFile() >= keepFile) {
+                        break;
+                    }
+                    commit.delete(ChainColumn.BLOCKS, iterator.value());
+                    count++;
+                }
+                lastPruned = height;
+            }
+            if (lastPruned == prunedHeight) {
+                return 0;
+            }
+            commit.put(ChainColumn.META, PRUNED_HEIGHT, HeightKey.encode(lastPruned));
+            commit.commit();
+        }
+        prunedHeight = lastPruned;
+        //索引删除后再删除文件,中途退出时剩余的文件在下次裁剪时删除
+        for (int file = keepFile - 1; file >= 0 && fileStore.segment(file).exists(); file--) {
+            fileStore.delete(file);
+        }
+        log.info("裁剪区块内容至高度:{},共:{} 个区块", lastPruned, count);
+        return count;
+    }
+
+    /**
+     * 将不晚于该高度的区块所在的已封存区块文件移动到归档目录,在后台线程中复制,不阻塞区块写入,
+     * 上一次归档尚未完成或正在制作快照时忽略
+     *
+     * @param height
+     */
+    public void archiveAsync(int height) {
+        if (Configure.BLOCK_ARCHIVE_DIR == null || height <= 0 || archiving.get()) {
+            return;
+        }
+        List<Integer> files = archivable(height);
+        if (files.isEmpty() || !archiving.compareAndSet(false, true)) {
+            return;
+        }
+        Thread thread = new Thread(() -> {
+            try {
+                archive(files);
+            } finally {
+                archiving.set(false);
+            }
+        }, "block-archive");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * 将不晚于该高度的区块所在的已封存区块文件移动到归档目录
+     *
+     * @param height
+     * @return 移动的区块文件数
+     */
+    public int archive(int height) {
+        return archive(archivable(height));
+    }
+
+    private int archive(List<Integer> files) {
+        if (!segmentLock.readLock().tryLock()) {//正在制作快照,之后的区块再归档
+            return 0;
+        }
+        int count = 0;
+        try {
+            for (int file : files) {
+                try {
+                    if (fileStore.archive(file)) {
+                        count++;
+                    }
+                } catch (IOException e) {
+                    log.error("归档区块文件:{} 失败", BlockFileStore.segmentName(file), e);
+                    break;
+                }
+            }
+        } finally {
+            segmentLock.readLock().unlock();
+        }
+        return count;
+    }
+
+    /**
+     * 制作快照链接区块文件期间不裁剪也不归档,等待正在进行的裁剪与归档完成后返回
+     */
+    void lockSegments() {
+        segmentLock.writeLock().lock();
+    }
+
+    void unlockSegments() {
+        segmentLock.writeLock().unlock();
+    }
+
+    /**
+     * 全部区块都不晚于该高度且尚未归档的已封存区块文件
+     *
+     * @param height
+     * @return
+     */
+    private List<Integer> archivable(int height) {
+        List<Integer> files = new ArrayList<>();
+        BlockFileStore store = fileStore;
+        byte[] keepHash = getHashByHeight(height + 1);
+        byte[] keepLocation = keepHash != null ? chainDatabase.get(ChainColumn.BLOCKS, keepHash) : null;
+        if (store == null || keepLocation == null) {
+            return files;
+        }
+        int keepFile = BlockLocation.decode(keepLocation).getFile();//该文件中还有更晚的区块
+        for (int file = keepFile - 1; file >= 0 && store.segment(file).exists() && !store.isArchived(file); file--) {
+            files.add(0, file);
+        }
+        return files;
+    }
+
+    /**
+     * 区块内容已被裁剪的最高高度,该高度及之前的区块只保留区块头
+     *
+     * @return
+     */
+    public int getPrunedHeight() {
+        return prunedHeight;
+    }
+
+    public boolean isPruned(int height) {
+        return height <= prunedHeight;
+    }
+
+    /**
+     * 按高度顺序遍历[fromHeight,toHeight]之间的区块,返回的游标使用完后需要关闭
+     *
+     * @param fromHeight
+     * @param toHeight
+     * @return
+     */
+    public BlockCursor scan(int fromHeight, int toHeight) {
+        return new BlockCursor(chainDatabase, fileStore, fromHeight, toHeight);
+    }
+
+    /**
+     * 导出[fromHeight,toHeight]之间的区块,每个区块依次写入高度、内容长度与内容
+     *
+     * @param fromHeight
+     * @param toHeight
+     * @param out
+     * @return 导出的区块数
+     * @throws IOException
+     */
+    public int export(int fromHeight, int toHeight, OutputStream out) throws IOException {
+        int count = 0;
+        DataOutputStream dos = new DataOutputStream(new BufferedOutputStream(out));
+        try (BlockCursor cursor = scan(fromHeight, toHeight)) {
+            while (cursor.hasNext()) {
+                StoredBlock block = cursor.next();
+                if (block.getContent() == null) {
+                    continue;
+                }
+                dos.writeInt(block.getHeight());
+                dos.writeInt(block.getContent().length);
+                dos.write(block.getContent());
+                count++;
+            }
+        }
+        dos.flush();
+        log.info("导出区块高度:{} 至 {} 的区块,共:{} 个", fromHeight, toHeight, count);
+        return count;
+    }
+
 }
@@ -0,0 +1,84 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017-2018 talust.org talust.io
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ */
+
+package org.talust.storage;
+
+/**
+ * 链数据库的列族,每个列族按照自身的读写特点单独调优
+ */
+public enum ChainColumn {
+    BLOCKS("blocks", 0, false),//区块hash -> 区块在区块文件中的位置
+    HEADERS("headers", 1, false),//区块hash -> 区块头
+    HEIGHT_INDEX("height_index", 2, true),//区块高度 -> 区块hash
+    UTXO("utxo", 3, true),//交易号-输出项 -> 交易输出
+    ADDRESS_UTXO("address_utxo", 4, true),//地址+交易号+输出项 -> 交易输出,按地址前缀扫描
+    BALANCES("balances", 5, true),//地址 -> 余额
+    ACCOUNTS("accounts", 6, true),//帐户信息,根证书以及挖矿地址
+    TX_INDEX("tx_index", 7, false),//交易索引
+    META("meta", 8, false),//最新区块hash,交易号等元数据
+    UNDO("undo", 9, false),//区块高度 -> 区块的撤销记录
+    ;
+
+    private String name;
+    private int id;//列族编号,持久化在撤销记录中,新增列族时使用新的编号,已有的编号不能修改
+    private boolean undoable;//区块提交时是否记录该列族的撤销记录,按hash寻址的区块内容与异步建立的索引不需要回滚
+
+    ChainColumn(String name, int id, boolean undoable) {
+        this.name = name;
+        this.id = id;
+        this.undoable = undoable;
+    }
+
+    /**
+     * 根据持久化的列族编号获取列族
+     *
+     * @param id
+     * @return
+     */
+    public static ChainColumn byId(int id) {
+        for (ChainColumn column : values()) {
+            if (column.id == id) {
+                return column;
+            }
+        }
+        throw new IllegalStateException("无法识别的列族编号:" + id);
+    }
+
+    public int getId() {
+        return id;
+    }
+
+    public boolean isUndoable() {
+        return undoable;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public byte[] getNameBytes() {
+        return name.getBytes();
+    }
+}
@@ -0,0 +1,163 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017-2018 talust.org talust.io
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ */
+
+package org.talust.storage;
+
+import lombok.extern.slf4j.Slf4j;
+import org.talust.common.tools.Configure;
+import org.talust.storage.kv.KeyValueStore;
+import org.talust.storage.kv.MemoryKeyValueStore;
+import org.talust.storage.kv.RocksKeyValueStore;
+
+import java.io.File;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * 链数据库,区块、高度索引、链状态、交易索引等数据存放于同一个键值存储的不同列族中,
+ * 存储引擎由Configure.STORAGE_ENGINE指定,默认使用RocksDB,也可使用不落盘的内存引擎
+ */
+@Slf4j
+public class ChainDatabase {
+    public static final String ENGINE_ROCKSDB = "rocksdb";
+    public static final String ENGINE_MEMORY = "memory";
+
+    private static ChainDatabase instance = new ChainDatabase();
+
+    private ChainDatabase() {
+    }
+
+    public static ChainDatabase get() {
+        return instance;
+    }
+
+    private KeyValueStore store;
+    private ReentrantReadWriteLock commitLock = new ReentrantReadWriteLock();//提交时持有读锁,制作快照时持有写锁
+
+    /**
+     * 打开链数据库,多次调用只会打开一次
+     */
+    public synchronized void init() {
+        if (store != null) {
+            return;
+        }
+        if (ENGINE_MEMORY.equals(Configure.STORAGE_ENGINE)) {
+            log.info("链数据使用内存存储,进程退出后数据丢失");
+            store = new MemoryKeyValueStore();
+            return;
+        }
+        try {
+            String dataChain = Configure.DATA_CHAIN;
+            File file = new File(dataChain);
+            if (!file.exists()) {
+                file.mkdirs();
+            }
+            if (Configure.FOLLOWER) {
+                log.info("以只读从实例打开链数据:{},从实例目录:{}", dataChain, Configure.FOLLOWER_DIR);
+                store = new RocksKeyValueStore(dataChain, Configure.FOLLOWER_DIR);
+                return;
+            }
+            log.info("链数据存储路径为:{}", dataChain);
+            store = new RocksKeyValueStore(dataChain);
+        } catch (Exception e) {
+            log.error("打开链数据库失败:", e);
+        }
+    }
+
+    public void put(ChainColumn column, byte[] key, byte[] value) {
+        try {
+            store.put(column, key, value);
+        } catch (RuntimeException e) {
+            log.error("写入列族:{} 数据失败:", column.getName(), e);
+        }
+    }
+
+    public byte[] get(ChainColumn column, byte[] key) {
+        try {
+            return store.get(column, key);
+        } catch (RuntimeException e) {
+            log.error("读取列族:{} 数据失败:", column.getName(), e);
+        }
+        return null;
+    }
+
+    /**
+     * 写入合并操作数,由列族的合并操作在读取或压缩时合并
+     *
+     * @param column
+     * @param key
+     * @param value
+     */
+    public void merge(ChainColumn column, byte[] key, byte[] value) {
+        try {
+            store.merge(column, key, value);
+        } catch (RuntimeException e) {
+            log.error("合并列族:{} 数据失败:", column.getName(), e);
+        }
+    }
+
+    public void delete(ChainColumn column, byte[] key) {
+        try {
+            store.delete(column, key);
+        } catch (RuntimeException e) {
+            log.error("删除列族:{} 数据失败:", column.getName(), e);
+        }
+    }
+
+    /**
+     * 开始一次区块提交,调用方负责关闭
+     *
+     * @return
+     */
+    public BlockCommit newCommit() {
+        return new BlockCommit(this);
+    }
+
+    /**
+     * 跟随模式下追赶主节点已写入的数据
+     */
+    public void catchUp() {
+        store.catchUp();
+    }
+
+    KeyValueStore getStore() {
+        return store;
+    }
+
+    ReentrantReadWriteLock getCommitLock() {
+        return commitLock;
+    }
+
+    /**
+     * 关闭链数据库,释放本地资源
+     */
+    public synchronized void close() {
+        if (store == null) {
+            return;
+        }
+        ChainViews.get().clear();
+        store.close();
+        store = null;
+    }
+}
@@ -0,0 +1,124 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017-2018 talust.org talust.io
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ */
+
+package org.talust.storage;
+
+import lombok.extern.slf4j.Slf4j;
+import org.talust.common.tools.Configure;
+import org.talust.common.tools.Constant;
+import org.talust.storage.kv.KvIterator;
+
+import java.util.Arrays;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 只读跟随,链数据库以从实例打开,定时追赶主节点已写入的数据,有新区块时发布该区块的链数据视图,
+ * 查询接口在视图上读取,跟随进程不写入主节点的任何文件
+ */
+@Slf4j
+public class ChainFollower {
+    private static ChainFollower instance = new ChainFollower();
+
+    private ChainFollower() {
+    }
+
+    public static ChainFollower get() {
+        return instance;
+    }
+
+    private ChainDatabase chainDatabase = ChainDatabase.get();
+    private BlockStorage blockStorage = BlockStorage.get();
+    private ChainViews chainViews = ChainViews.get();
+    private ScheduledExecutorService executor;
+    private volatile int height = -1;//已发布视图的区块高度
+    private byte[] blockHash;
+
+    /**
+     * 开始定时追赶主节点
+     */
+    public synchronized void start() {
+        if (executor != null) {
+            return;
+        }
+        executor = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "chain-follower");
+            thread.setDaemon(true);
+            return thread;
+        });
+        executor.scheduleWithFixedDelay(this::catchUp, 0, Configure.FOLLOWER_CATCH_UP_INTERVAL, TimeUnit.MILLISECONDS);
+        log.info("开始跟随主节点,追赶间隔:{}ms", Configure.FOLLOWER_CATCH_UP_INTERVAL);
+    }
+
+    public synchronized void stop() {
+        if (executor != null) {
+            executor.shutdownNow();
+            executor = null;
+        }
+    }
+
+    /**
+     * 追赶一次主节点,最新区块变化时发布新的视图
+     */
+    void catchUp() {
+        try {
+            chainDatabase.catchUp();
+            blockStorage.refresh();
+            byte[] hash = chainDatabase.get(ChainColumn.META, Constant.NOW_BLOCK_HASH);
+            if (hash == null || Arrays.equals(hash, blockHash)) {
+                return;
+            }
+            int tipHeight = tipHeight();
+            if (tipHeight < height) {//主节点发生了回滚
+                chainViews.rollback(tipHeight);
+            }
+            chainViews.publish(tipHeight, hash);
+            if (tipHeight != height) {
+                log.debug("跟随主节点至高度:{}", tipHeight);
+            }
+            height = tipHeight;
+            blockHash = hash;
+        } catch (Throwable e) {
+            log.error("追赶主节点失败", e);
+        }
+    }
+
+    private int tipHeight() {
+        try (KvIterator iterator = chainDatabase.getStore().newIterator(ChainColumn.HEIGHT_INDEX, false)) {
+            iterator.seekToLast();
+            return iterator.isValid() ? HeightKey.decode(iterator.key()) : -1;
+        }
+    }
+
+    /**
+     * 已跟随到的区块高度
+     *
+     * @return
+     */
+    public int getHeight() {
+        return height;
+    }
+}
@@ -0,0 +1,228 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017-2018 talust.org talust.io
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ */
+
+package org.talust.storage;
+
+import com.alibaba.fastjson.JSONObject;
+import lombok.extern.slf4j.Slf4j;
+import org.talust.common.crypto.Hex;
+import org.talust.common.tools.Configure;
+import org.talust.common.tools.Constant;
+import org.talust.storage.kv.KvIterator;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+
+/**
+ * 链数据快照,基于存储引擎的checkpoint制作某一高度的一致性快照,包含链状态、区块索引以及区块文件,
+ * 新节点导入快照后只需同步快照之后的区块
+ */
+@Slf4j
+public class ChainSnapshot {
+    public static final String MANIFEST = "manifest.json";
+    private static final String CHAIN_DIR = "chain";
+    private static final String BLOCK_DIR = "block";
+
+    private static ChainSnapshot instance = new ChainSnapshot();
+
+    private ChainSnapshot() {
+    }
+
+    public static ChainSnapshot get() {
+        return instance;
+    }
+
+    private ChainDatabase chainDatabase = ChainDatabase.get();
+    private BlockStorage blockStorage = BlockStorage.get();
+
+    /**
+     * 在指定目录制作快照,制作期间暂停区块提交,数据库文件与已封存的区块文件使用硬链接,不复制数据
+     * 链接区块文件期间暂停裁剪与归档,制作失败时删除已写入的快照目录
+     *
+     * @param dir 快照目录,不能已存在
+     * @return 快照清单
+     * @throws IOException
+     */
+    public synchronized JSONObject create(String dir) throws IOException {
+        File target = new File(dir);
+        if (target.exists()) {
+            throw new IOException("快照目录已存在:" + dir);
+        }
+        target.mkdirs();
+        try {
+            return write(target);
+        } catch (IOException | RuntimeException e) {
+            deleteDir(target);//不留下不完整的快照
+            throw e;
+        }
+    }
+
+    private JSONObject write(File target) throws IOException {
+        int height = -1;
+        byte[] tipHash;
+        BlockLocation tip;
+        blockStorage.lockSegments();//链接完成前不裁剪也不归档,已封存的区块文件不会被删除或移动
+        try {
+            chainDatabase.getCommitLock().writeLock().lock();
+            try {
+                tipHash = chainDatabase.get(ChainColumn.META, Constant.NOW_BLOCK_HASH);
+                tip = blockStorage.committedTip();
+                try (KvIterator iterator = chainDatabase.getStore().newIterator(ChainColumn.HEIGHT_INDEX, false)) {
+                    iterator.seekToLast();
+                    if (iterator.isValid()) {
+                        height = HeightKey.decode(iterator.key());
+                    }
+                }
+                chainDatabase.getStore().checkpoint(new File(target, CHAIN_DIR).getAbsolutePath());
+            } finally {
+                chainDatabase.getCommitLock().writeLock().unlock();
+            }
+
+            File blockDir = new File(target, BLOCK_DIR);
+            blockDir.mkdirs();
+            BlockFileStore fileStore = blockStorage.getFileStore();
+            if (tip != null) {
+                for (int idx = 0; idx < tip.getFile(); idx++) {//已封存的区块文件不再修改,直接链接
+                    File segment = fileStore.segment(idx);
+                    if (segment.exists()) {
+                        link(segment, new File(blockDir, segment.getName()));
+                    }
+                }
+                File active = fileStore.segment(tip.getFile());//正在写入的区块文件只复制已提交的部分
+                if (active.exists()) {//回滚后新的区块文件可能尚未创建
+                    copy(active, new File(blockDir, active.getName()), tip.getOffset());
+                }
+            }
+        } finally {
+            blockStorage.unlockSegments();
+        }
+
+        JSONObject manifest = new JSONObject();
+        manifest.put("height", height);
+        manifest.put("tipHash", tipHash != null ? Hex.encode(tipHash) : null);
+        manifest.put("blockFile", tip != null ? tip.getFile() : 0);
+        manifest.put("blockOffset", tip != null ? tip.getOffset() : 0);
+        manifest.put("createTime", System.currentTimeMillis());
+        try (FileOutputStream fos = new FileOutputStream(new File(target, MANIFEST))) {
+            fos.write(manifest.toJSONString().getBytes());
+        }
+        log.info("制作链数据快照完成,路径:{},高度:{}", target.getAbsolutePath(), height);
+        return manifest;
+    }
+
+    /**
+     * 导入快照,需在存储初始化之前调用,本地已有链数据时不导入
+     *
+     * @param dir 快照目录
+     * @return 是否导入
+     * @throws IOException
+     */
+    public synchronized boolean importSnapshot(String dir) throws IOException {
+        File source = new File(dir);
+        File manifestFile = new File(source, MANIFEST);
+        if (!manifestFile.exists()) {
+            throw new IOException("快照清单不存在:" + manifestFile.getAbsolutePath());
+        }
+        File chainDir = new File(Configure.DATA_CHAIN);
+        String[] exists = chainDir.list();
+        if (exists != null && exists.length > 0) {
+            log.warn("本地已存在链数据:{},不导入快照", Configure.DATA_CHAIN);
+            return false;
+        }
+        JSONObject manifest = JSONObject.parseObject(new String(Files.readAllBytes(manifestFile.toPath())));
+        //数据库文件中只有sst文件不会被修改,可以链接,其他文件打开后可能被改写,需复制
+        copyDir(new File(source, CHAIN_DIR), chainDir, ".sst");
+        //区块文件中只有最后一个会继续写入
+        String activeName = BlockFileStore.segmentName(manifest.getIntValue("blockFile"));
+        File[] segments = new File(source, BLOCK_DIR).listFiles();
+        File blockDir = new File(Configure.DATA_BLOCK);
+        blockDir.mkdirs();
+        if (segments != null) {
+            for (File segment : segments) {
+                File to = new File(blockDir, segment.getName());
+                if (segment.getName().equals(activeName)) {
+                    copy(segment, to, segment.length());
+                } else {
+                    link(segment, to);
+                }
+            }
+        }
+        log.info("导入链数据快照完成,快照高度:{},最新区块:{}", manifest.getIntValue("height"), manifest.getString("tipHash"));
+        return true;
+    }
+
+    private void copyDir(File from, File to, String linkSuffix) throws IOException {
+        File[] files = from.listFiles();
+        if (files == null) {
+            throw new IOException("快照数据目录不存在:" + from.getAbsolutePath());
+        }
+        to.mkdirs();
+        for (File file : files) {
+            File dest = new File(to, file.getName());
+            if (file.getName().endsWith(linkSuffix)) {
+                link(file, dest);
+            } else {
+                Files.copy(file.toPath(), dest.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            }
+        }
+    }
+
+    private void deleteDir(File file) {
+        File[] files = file.listFiles();
+        if (files != null) {
+            for (File child : files) {
+                deleteDir(child);
+            }
+        }
+        if (!file.delete()) {
+            log.warn("删除文件:{} 失败", file.getAbsolutePath());
+        }
+    }
+
+    //硬链接,不在同一文件系统时退化为复制
+    private void link(File from, File to) throws IOException {
+        try {
+            Files.createLink(to.toPath(), from.toPath());
+        } catch (IOException | UnsupportedOperationException e) {
+            Files.copy(from.toPath(), to.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    private void copy(File from, File to, long length) throws IOException {
+        try (FileChannel in = new FileInputStream(from).getChannel();
+             FileChannel out = new FileOutputStream(to).getChannel()) {
+            long position = 0;
+            while (position < length) {
+                position += in.transferTo(position, length - position, out);
+            }
+            out.force(false);
+        }
+    }
+}
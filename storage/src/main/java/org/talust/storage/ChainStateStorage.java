@@ -1,20 +1,18 @@
 package org.talust.storage;
 
 import org.talust.common.model.DepositAccount;
-import org.talust.common.tools.Configure;
 import lombok.extern.slf4j.Slf4j;
-import org.rocksdb.Options;
-import org.rocksdb.RocksDB;
-import org.rocksdb.RocksDBException;
-import org.rocksdb.util.SizeUnit;
-import org.talust.common.tools.SerializationUtil;
+import org.talust.common.tools.CacheManager;
+import org.talust.common.tools.Configure;
+import org.talust.storage.kv.KvIterator;
 
-import java.io.File;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
 import java.util.ArrayList;
 import java.util.List;
-import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.CompletableFuture;
 
-//交易帐户余额存储,用于存储每一个帐户的每一个交易过来的余额,针对UTXO模型实现的
+//链数据库中交易输出、余额与帐户信息的视图
 @Slf4j
 public class ChainStateStorage {
     private static ChainStateStorage instance = new ChainStateStorage();
@@ -22,105 +20,197 @@ public class ChainStateStorage {
     private ChainStateStorage() {
     }
     private byte[] TRAN_NUMBER = "tranNumber".getBytes();
-    private byte[] ADDRESS_AMOUNT = "addressAmount".getBytes();
-    private AtomicLong tranNumber;
+    private byte[] TRAN_NUMBER_LIMIT = "tranNumberLimit".getBytes();
     public static ChainStateStorage get() {
         return instance;
     }
-    private RocksDB db;
-    final Options options = new Options()
-            .setCreateIfMissing(true)
-            .setWriteBufferSize(8 * SizeUnit.KB)
-            .setMaxWriteBufferNumber(3)
-            .setMaxBackgroundCompactions(10);
+    private ChainDatabase chainDatabase = ChainDatabase.get();
+    private StorageWriter storageWriter = StorageWriter.get();
+    private TranNumberSequence tranNumber;
 
-
-    static {
-        try {
-            RocksDB.loadLibrary();
-        } catch (Exception e) {
-            e.printStackTrace();
+    public void init() {
+        chainDatabase.init();
+        if (Configure.FOLLOWER) {//跟随模式不打包交易
+            return;
         }
+        //初始化交易号,便于打包交易时使用
+        initTranNumber();
     }
 
-    public void init() {
-        try {
-            String dataBlock = Configure.DATA_CHAINSTATE;
-            File file = new File(dataBlock);
-            if (!file.exists()) {
-                file.mkdirs();
-            }
-            log.info("保存区块链状态数据路径为:{}", dataBlock);
-            db = RocksDB.open(options, dataBlock);
-            //初始化交易号,便于打包交易时使用
-            initTranNumber();
-        } catch (RocksDBException e) {
-            e.printStackTrace();
-        }
+    public CompletableFuture<Void> put(byte[] key, byte[] value) {
+        return storageWriter.put(ChainColumn.UTXO, key, value);
     }
 
-    public void put(byte[] key, byte[] value) {
-        try {
-            db.put(key, value);
-        } catch (Exception e) {
-        }
+    public void put(BlockCommit commit, byte[] key, byte[] value) {
+        commit.put(ChainColumn.UTXO, key, value);
     }
 
     public byte[] get(byte[] key) {
-        try {
-            return db.get(key);
-        } catch (RocksDBException e) {
-            e.printStackTrace();
-        }
-        return null;
+        return chainDatabase.get(ChainColumn.UTXO, key);
     }
 
+    /**
+     * 交易输出的键,交易号-输出项
+     *
+     * @param tranNumber
+     * @param item
+     * @return
+     */
+    public static byte[] utxoKey(long tranNumber, int item) {
+        return (tranNumber + "-" + item).getBytes();
+    }
 
+    /**
+     * 按地址遍历该地址的未花费交易输出,只包含已提交区块中的数据,使用完后需要关闭
+     *
+     * @param address
+     * @return
+     */
+    public AddressUtxoCursor addressUtxos(byte[] address) {
+        return new AddressUtxoCursor(chainDatabase, address);
+    }
+
+    /**
+     * 存储帐户相关的数据,包括平台认证的帐户信息,根证书以及挖矿地址
+     *
+     * @param key
+     * @param value
+     */
+    public CompletableFuture<Void> putAccount(byte[] key, byte[] value) {
+        return storageWriter.put(ChainColumn.ACCOUNTS, key, value);
+    }
+
+    public void putAccount(BlockCommit commit, byte[] key, byte[] value) {
+        commit.put(ChainColumn.ACCOUNTS, key, value);
+    }
+
+    public byte[] getAccount(byte[] key) {
+        return chainDatabase.get(ChainColumn.ACCOUNTS, key);
+    }
+
+    public byte[] getAccount(BlockCommit commit, byte[] key) {
+        return commit.get(ChainColumn.ACCOUNTS, key);
+    }
 
     private void initTranNumber() {
-        try {
-            byte[] bytes = db.get(TRAN_NUMBER);
-            if (bytes != null) {
-                tranNumber = new AtomicLong(Long.parseLong(new String(bytes)));
-            } else {//交易号默认从100开始
-                tranNumber = new AtomicLong(100);
-            }
-        } catch (RocksDBException e) {
-            e.printStackTrace();
+        //交易号默认从101开始,兼容旧版本保存的十进制交易号
+        long first = 101;
+        byte[] bytes = chainDatabase.get(ChainColumn.META, TRAN_NUMBER);
+        if (bytes != null) {
+            first = Long.parseLong(new String(bytes)) + 1;
         }
+        tranNumber = new TranNumberSequence(chainDatabase, storageWriter, TRAN_NUMBER_LIMIT, Configure.TRAN_NUMBER_RANGE);
+        tranNumber.init(first);
     }
 
-    public synchronized long newTranNumber() {
-        return tranNumber.addAndGet(1);
+    /**
+     * 分配一个新的交易号,分配出的交易号在重启后也不会重复
+     *
+     * @return
+     */
+    public long newTranNumber() {
+        return tranNumber.next();
     }
 
-    public void saveTranNumber() {
-        try {
-            db.put(TRAN_NUMBER, Long.toString(tranNumber.get()).getBytes());
-        } catch (RocksDBException e) {
-            e.printStackTrace();
+    /**
+     * 回滚到指定高度,从最新区块开始逐个重放撤销记录,交易输出、地址索引、余额、帐户信息与高度索引
+     * 恢复到该高度的区块提交后的状态,最新区块hash指向该高度的区块,被回滚区块的内容索引与区块头删除,
+     * 区块文件末尾位置退回到被回滚的最早区块处,全部修改在一次提交中写入,之后重置当前区块高度与hash.
+     * 调用方需保证回滚期间没有区块提交,区块模块通过BlockHeaderStore.rollbackTo回滚以同时清除区块头缓存
+     *
+     * @param height 回滚后的最新区块高度
+     * @return 回滚的区块数
+     */
+    public synchronized int rollbackTo(int height) {
+        int tipHeight = lastHeight(ChainColumn.HEIGHT_INDEX);
+        if (tipHeight <= height) {
+            return 0;
+        }
+        byte[] hash = chainDatabase.get(ChainColumn.HEIGHT_INDEX, HeightKey.encode(height));
+        if (hash == null) {
+            throw new IllegalStateException("高度:" + height + " 的区块不存在,不能回滚");
         }
+        List<UndoRecord> records = new ArrayList<>();
+        List<byte[]> hashes = new ArrayList<>();//被回滚的区块hash
+        try (KvIterator iterator = chainDatabase.getStore().newIterator(ChainColumn.UNDO, false)) {
+            int expected = tipHeight;
+            for (iterator.seekToLast(); iterator.isValid() && expected > height; iterator.prev()) {
+                if (HeightKey.decode(iterator.key()) != expected) {
+                    break;
+                }
+                records.add(UndoRecord.decode(iterator.value()));
+                byte[] rolledHash = chainDatabase.get(ChainColumn.HEIGHT_INDEX, iterator.key());
+                if (rolledHash != null) {
+                    hashes.add(rolledHash);
+                }
+                expected--;
+            }
+            if (expected > height) {//超出保留深度或撤销记录缺失
+                throw new IllegalStateException("高度:" + expected + " 的撤销记录不存在,需要重新同步");
+            }
+        }
+        BlockLocation fileTip;
+        try (BlockCommit commit = chainDatabase.newCommit()) {
+            for (int i = 0; i < records.size(); i++) {
+                records.get(i).apply(commit);
+                commit.delete(ChainColumn.UNDO, HeightKey.encode(tipHeight - i));
+            }
+            BlockStorage.get().setNowBlockHash(commit, hash);
+            fileTip = BlockStorage.get().removeBlocks(commit, hashes);
+            commit.commit();
+        }
+        if (fileTip != null) {
+            BlockStorage.get().rewind(fileTip);
+        }
+        CacheManager.get().setCurrentBlockHeight(height);
+        CacheManager.get().setCurrentBlockHash(hash);
+        UtxoCache.get().discard();//缓存中的交易输出可能已被回滚
+        ChainViews.get().rollback(height);
+        ChainViews.get().publish(height, hash);
+        log.info("从高度:{} 回滚到高度:{},共:{} 个区块", tipHeight, height, records.size());
+        return records.size();
     }
 
+    private int lastHeight(ChainColumn column) {
+        try (KvIterator iterator = chainDatabase.getStore().newIterator(column, false)) {
+            iterator.seekToLast();
+            return iterator.isValid() ? HeightKey.decode(iterator.key()) : -1;
+        }
+    }
 
+    /**
+     * 增减地址余额,余额以最小单位的整数存储,增量直接写入,不需要先读取再写入
+     *
+     * @param address
+     * @param delta 最小单位的增量,减少时为负数
+     */
+    public CompletableFuture<Void> addAddressAmount(byte[] address, long delta) {
+        return storageWriter.merge(ChainColumn.BALANCES, address, encodeAmount(delta));
+    }
 
-    public  void saveAddressAmount(byte[] address,String amount){
-        try {
-            db.put(byteMerger(address,ADDRESS_AMOUNT),SerializationUtil.serializer(amount));
-        } catch (RocksDBException e) {
-            e.printStackTrace();
-        }
+    public void addAddressAmount(BlockCommit commit, byte[] address, long delta) {
+        commit.merge(ChainColumn.BALANCES, address, encodeAmount(delta));
     }
 
-    public String getAddressAmount(byte[] address){
-        String amount = "";
-        try {
-         byte[] sAmount =  db.get(byteMerger(address,ADDRESS_AMOUNT));
-            amount =  SerializationUtil.deserializer(sAmount,String.class);
-        } catch (RocksDBException e) {
-            e.printStackTrace();
+    /**
+     * 获取地址余额,单位为最小单位
+     *
+     * @param address
+     * @return
+     */
+    public long getAddressAmount(byte[] address) {
+        return decodeAmount(chainDatabase.get(ChainColumn.BALANCES, address));
+    }
+
+    private static byte[] encodeAmount(long amount) {
+        return ByteBuffer.allocate(8).order(ByteOrder.LITTLE_ENDIAN).putLong(amount).array();
+    }
+
+    static long decodeAmount(byte[] bytes) {
+        if (bytes == null) {
+            return 0;
         }
-        return amount;
+        return ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN).getLong();
     }
 
     public static byte[] byteMerger(byte[] byte_1, byte[] byte_2){
@@ -139,6 +229,4 @@ public class ChainStateStorage {
         List<DepositAccount> deposits = new ArrayList<>();
         return deposits;
     }
-
-
 }
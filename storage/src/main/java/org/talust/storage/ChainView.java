@@ -0,0 +1,140 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017-2018 talust.org talust.io
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ */
+
+package org.talust.storage;
+
+import org.talust.storage.kv.KvSnapshot;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 某一区块提交后的链数据只读视图,基于该区块提交后立即创建的快照,
+ * 查询不会看到之后的区块,也不会与区块写入争抢锁,使用完后需要关闭
+ */
+public class ChainView implements AutoCloseable {
+    private final int height;
+    private final byte[] blockHash;
+    private final KvSnapshot snapshot;
+    private final AtomicInteger refs;//同一快照上所有视图共享的引用计数,ChainViews持有一个引用
+    private final AtomicBoolean closed = new AtomicBoolean();//每个视图只释放一次引用
+
+    ChainView(int height, byte[] blockHash, KvSnapshot snapshot) {
+        this(height, blockHash, snapshot, new AtomicInteger(1));
+    }
+
+    private ChainView(int height, byte[] blockHash, KvSnapshot snapshot, AtomicInteger refs) {
+        this.height = height;
+        this.blockHash = blockHash;
+        this.snapshot = snapshot;
+        this.refs = refs;
+    }
+
+    /**
+     * 在同一快照上打开一个新的视图,由调用方各自关闭,快照已释放时返回null
+     *
+     * @return
+     */
+    ChainView retain() {
+        for (int count = refs.get(); count > 0; count = refs.get()) {
+            if (refs.compareAndSet(count, count + 1)) {
+                return new ChainView(height, blockHash, snapshot, refs);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * 视图对应的区块高度
+     *
+     * @return
+     */
+    public int getHeight() {
+        return height;
+    }
+
+    /**
+     * 视图对应的区块hash
+     *
+     * @return
+     */
+    public byte[] getBlockHash() {
+        return blockHash;
+    }
+
+    public byte[] getHashByHeight(int height) {
+        return snapshot.get(ChainColumn.HEIGHT_INDEX, HeightKey.encode(height));
+    }
+
+    /**
+     * 获取原始区块内容,区块文件只追加,按快照中的位置读取即可
+     *
+     * @param hash
+     * @return
+     */
+    public byte[] getBlock(byte[] hash) {
+        byte[] location = snapshot.get(ChainColumn.BLOCKS, hash);
+        return location != null ? BlockStorage.get().read(location) : null;
+    }
+
+    public byte[] getHeader(byte[] hash) {
+        return snapshot.get(ChainColumn.HEADERS, hash);
+    }
+
+    /**
+     * 获取未花费的交易输出
+     *
+     * @param tranNumber
+     * @param item
+     * @return
+     */
+    public byte[] getUtxo(long tranNumber, int item) {
+        return snapshot.get(ChainColumn.UTXO, ChainStateStorage.utxoKey(tranNumber, item));
+    }
+
+    /**
+     * 获取地址余额,单位为最小单位
+     *
+     * @param address
+     * @return
+     */
+    public long getAddressAmount(byte[] address) {
+        return ChainStateStorage.decodeAmount(snapshot.get(ChainColumn.BALANCES, address));
+    }
+
+    public byte[] getAccount(byte[] key) {
+        return snapshot.get(ChainColumn.ACCOUNTS, key);
+    }
+
+    /**
+     * 关闭视图,重复关闭不会多释放快照的引用,所有视图都关闭后释放快照
+     */
+    @Override
+    public void close() {
+        if (closed.compareAndSet(false, true) && refs.decrementAndGet() == 0) {
+            snapshot.close();
+        }
+    }
+}
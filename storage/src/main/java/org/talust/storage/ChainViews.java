@@ -0,0 +1,114 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017-2018 talust.org talust.io
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ */
+
+package org.talust.storage;
+
+import lombok.extern.slf4j.Slf4j;
+import org.talust.common.tools.Configure;
+
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * 发布每个区块提交后的链数据视图,保留最近CHAIN_VIEW_DEPTH个区块的视图,
+ * 接口查询与同步服务在视图上读取,读到的数据总是某个完整区块提交后的状态
+ */
+@Slf4j
+public class ChainViews {
+    private static ChainViews instance = new ChainViews();
+
+    private ChainViews() {
+    }
+
+    public static ChainViews get() {
+        return instance;
+    }
+
+    private ChainDatabase chainDatabase = ChainDatabase.get();
+    private TreeMap<Integer, ChainView> views = new TreeMap<>();
+
+    /**
+     * 区块提交后发布该区块的视图
+     *
+     * @param height 已提交的区块高度
+     * @param blockHash 已提交的区块hash
+     */
+    public synchronized void publish(int height, byte[] blockHash) {
+        if (Configure.CHAIN_VIEW_DEPTH <= 0) {
+            return;
+        }
+        ChainView old = views.put(height, new ChainView(height, blockHash, chainDatabase.getStore().getSnapshot()));
+        if (old != null) {
+            old.close();
+        }
+        //从实例追赶主节点时会改变已有快照读到的数据,跟随模式只保留最新的视图
+        int depth = Configure.FOLLOWER ? 1 : Configure.CHAIN_VIEW_DEPTH;
+        while (views.size() > depth) {
+            views.pollFirstEntry().getValue().close();
+        }
+    }
+
+    /**
+     * 获取最新区块的视图,没有已发布的视图时返回null,使用完后需要关闭
+     *
+     * @return
+     */
+    public synchronized ChainView latest() {
+        Map.Entry<Integer, ChainView> entry = views.lastEntry();
+        return entry != null ? entry.getValue().retain() : null;
+    }
+
+    /**
+     * 获取指定高度的区块提交后的视图,只保留最近的区块,更早的高度返回null,使用完后需要关闭
+     *
+     * @param height
+     * @return
+     */
+    public synchronized ChainView at(int height) {
+        ChainView view = views.get(height);
+        return view != null ? view.retain() : null;
+    }
+
+    /**
+     * 回滚后丢弃高于该高度的视图
+     *
+     * @param height 回滚后的最新区块高度
+     */
+    synchronized void rollback(int height) {
+        while (!views.isEmpty() && views.lastKey() > height) {
+            views.pollLastEntry().getValue().close();
+        }
+    }
+
+    /**
+     * 释放所有视图,关闭链数据库前调用
+     */
+    synchronized void clear() {
+        for (ChainView view : views.values()) {
+            view.close();
+        }
+        views.clear();
+    }
+}
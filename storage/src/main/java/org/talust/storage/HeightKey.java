@@ -0,0 +1,50 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017-2018 talust.org talust.io
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ */
+
+package org.talust.storage;
+
+//区块高度索引的键,固定4字节大端序,保证字典序与高度顺序一致,便于范围遍历
+public final class HeightKey {
+    public static final int LENGTH = 4;
+
+    private HeightKey() {
+    }
+
+    public static byte[] encode(int height) {
+        return new byte[]{
+                (byte) (height >>> 24),
+                (byte) (height >>> 16),
+                (byte) (height >>> 8),
+                (byte) height
+        };
+    }
+
+    public static int decode(byte[] key) {
+        return ((key[0] & 0xFF) << 24)
+                | ((key[1] & 0xFF) << 16)
+                | ((key[2] & 0xFF) << 8)
+                | (key[3] & 0xFF);
+    }
+}
@@ -0,0 +1,181 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017-2018 talust.org talust.io
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ */
+
+package org.talust.storage;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * protostuff序列化数据的字段定位,不反序列化整个对象,只找出需要的字段在字节中的位置,
+ * 嵌套对象按protostuff的方式以group编码,同时兼容以长度编码的嵌套对象
+ */
+final class ProtoWire {
+    private static final int WIRE_VARINT = 0;
+    private static final int WIRE_FIXED64 = 1;
+    private static final int WIRE_LENGTH = 2;
+    private static final int WIRE_START_GROUP = 3;
+    private static final int WIRE_END_GROUP = 4;
+    private static final int WIRE_FIXED32 = 5;
+
+    private static final int BLOCK_BODY = 2;//Block中body的字段号
+    private static final int BODY_DATA = 1;//BlockBody中data的字段号
+
+    private ProtoWire() {
+    }
+
+    /**
+     * 找出区块中每一条业务数据在区块字节中的位置
+     *
+     * @param block
+     * @return 每条业务数据的偏移量与长度
+     */
+    static List<int[]> blockData(ByteBuffer block) {
+        List<int[]> slices = new ArrayList<>();
+        ByteBuffer buf = block.duplicate();
+        int base = buf.position();
+        while (buf.hasRemaining()) {
+            int tag = readVarint32(buf);
+            int field = tag >>> 3;
+            int wireType = tag & 7;
+            if (field == BLOCK_BODY && wireType == WIRE_START_GROUP) {
+                readBody(buf, base, -1, slices);
+            } else if (field == BLOCK_BODY && wireType == WIRE_LENGTH) {
+                int length = readVarint32(buf);
+                readBody(buf, base, buf.position() + length, slices);
+            } else {
+                skip(buf, tag);
+            }
+        }
+        return slices;
+    }
+
+    private static void readBody(ByteBuffer buf, int base, int end, List<int[]> slices) {
+        while (end < 0 || buf.position() < end) {
+            int tag = readVarint32(buf);
+            if ((tag & 7) == WIRE_END_GROUP) {
+                return;
+            }
+            if ((tag >>> 3) == BODY_DATA && (tag & 7) == WIRE_LENGTH) {
+                int length = readVarint32(buf);
+                slices.add(new int[]{buf.position() - base, length});
+                buf.position(buf.position() + length);
+            } else {
+                skip(buf, tag);
+            }
+        }
+    }
+
+    /**
+     * 读取第一个指定字段号的长度编码字段,返回该字段内容的视图
+     *
+     * @param message
+     * @param field
+     * @return 不存在时返回null
+     */
+    static ByteBuffer bytesField(ByteBuffer message, int field) {
+        ByteBuffer buf = message.duplicate();
+        while (buf.hasRemaining()) {
+            int tag = readVarint32(buf);
+            if ((tag >>> 3) == field && (tag & 7) == WIRE_LENGTH) {
+                int length = readVarint32(buf);
+                ByteBuffer value = buf.slice();
+                value.limit(length);
+                return value;
+            }
+            skip(buf, tag);
+        }
+        return null;
+    }
+
+    /**
+     * 读取第一个指定字段号的varint字段
+     *
+     * @param message
+     * @param field
+     * @param defaultValue 不存在时返回的值
+     * @return
+     */
+    static long varintField(ByteBuffer message, int field, long defaultValue) {
+        ByteBuffer buf = message.duplicate();
+        while (buf.hasRemaining()) {
+            int tag = readVarint32(buf);
+            if ((tag >>> 3) == field && (tag & 7) == WIRE_VARINT) {
+                return readVarint64(buf);
+            }
+            skip(buf, tag);
+        }
+        return defaultValue;
+    }
+
+    private static void skip(ByteBuffer buf, int tag) {
+        switch (tag & 7) {
+            case WIRE_VARINT:
+                readVarint64(buf);
+                break;
+            case WIRE_FIXED64:
+                buf.position(buf.position() + 8);
+                break;
+            case WIRE_LENGTH:
+                int length = readVarint32(buf);
+                buf.position(buf.position() + length);
+                break;
+            case WIRE_START_GROUP:
+                int field = tag >>> 3;
+                while (true) {
+                    int inner = readVarint32(buf);
+                    if ((inner & 7) == WIRE_END_GROUP && (inner >>> 3) == field) {
+                        break;
+                    }
+                    skip(buf, inner);
+                }
+                break;
+            case WIRE_END_GROUP:
+                break;
+            case WIRE_FIXED32:
+                buf.position(buf.position() + 4);
+                break;
+            default:
+                throw new IllegalArgumentException("无法识别的字段类型:" + (tag & 7));
+        }
+    }
+
+    private static int readVarint32(ByteBuffer buf) {
+        return (int) readVarint64(buf);
+    }
+
+    private static long readVarint64(ByteBuffer buf) {
+        long result = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            byte b = buf.get();
+            result |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return result;
+            }
+        }
+        throw new IllegalArgumentException("varint格式错误");
+    }
+}
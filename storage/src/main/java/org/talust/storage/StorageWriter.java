@@ -0,0 +1,156 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017-2018 talust.org talust.io
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ */
+
+package org.talust.storage;
+
+import lombok.extern.slf4j.Slf4j;
+import org.talust.common.tools.Configure;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * 存储写入线程,各处提交的零散写入由单独的线程按到达顺序合并到同一批次中一次性同步提交,
+ * 返回的future在数据落盘后完成,写入失败时以异常完成,不再被静默吞掉
+ */
+@Slf4j
+public class StorageWriter {
+    private static StorageWriter instance = new StorageWriter();
+
+    private StorageWriter() {
+    }
+
+    public static StorageWriter get() {
+        return instance;
+    }
+
+    private ChainDatabase chainDatabase = ChainDatabase.get();
+    private BlockingQueue<WriteIntent> queue = new LinkedBlockingQueue<>();
+    private Thread thread;
+
+    private static class WriteIntent {
+        Consumer<BlockCommit> writes;
+        CompletableFuture<Void> future = new CompletableFuture<>();
+
+        WriteIntent(Consumer<BlockCommit> writes) {
+            this.writes = writes;
+        }
+    }
+
+    /**
+     * 提交一组写入,这组写入与其他同时到达的写入在同一批次中提交
+     *
+     * @param writes 向批次中写入数据
+     * @return 数据落盘后完成
+     */
+    public CompletableFuture<Void> submit(Consumer<BlockCommit> writes) {
+        start();
+        WriteIntent intent = new WriteIntent(writes);
+        queue.add(intent);
+        return intent.future;
+    }
+
+    public CompletableFuture<Void> put(ChainColumn column, byte[] key, byte[] value) {
+        return submit(commit -> commit.put(column, key, value));
+    }
+
+    public CompletableFuture<Void> merge(ChainColumn column, byte[] key, byte[] value) {
+        return submit(commit -> commit.merge(column, key, value));
+    }
+
+    public CompletableFuture<Void> delete(ChainColumn column, byte[] key) {
+        return submit(commit -> commit.delete(column, key));
+    }
+
+    private synchronized void start() {
+        if (thread != null) {
+            return;
+        }
+        thread = new Thread(this::run, "storage-writer");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    private void run() {
+        List<WriteIntent> group = new ArrayList<>();
+        while (true) {
+            try {
+                group.add(queue.take());
+                long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(Configure.STORAGE_COMMIT_DELAY);
+                while (group.size() < Configure.STORAGE_COMMIT_BATCH) {
+                    long wait = deadline - System.nanoTime();
+                    WriteIntent intent = wait > 0 ? queue.poll(wait, TimeUnit.NANOSECONDS) : queue.poll();
+                    if (intent == null) {
+                        break;
+                    }
+                    group.add(intent);
+                }
+                commit(group);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (Throwable e) {
+                log.error("存储写入线程异常", e);
+            } finally {
+                group.clear();
+            }
+        }
+    }
+
+    //合并提交,单个写入出错时只回滚该写入,其他写入照常提交
+    private void commit(List<WriteIntent> group) {
+        List<WriteIntent> applied = new ArrayList<>(group.size());
+        try (BlockCommit commit = chainDatabase.newCommit()) {
+            for (WriteIntent intent : group) {
+                commit.setSavePoint();
+                try {
+                    intent.writes.accept(commit);
+                    applied.add(intent);
+                } catch (Throwable e) {
+                    commit.rollbackToSavePoint();
+                    log.error("写入数据失败", e);
+                    intent.future.completeExceptionally(e);
+                }
+            }
+            if (!applied.isEmpty()) {
+                commit.commit();
+            }
+        } catch (Throwable e) {
+            log.error("合并提交失败,写入数:{}", applied.size(), e);
+            for (WriteIntent intent : applied) {
+                intent.future.completeExceptionally(e);
+            }
+            return;
+        }
+        for (WriteIntent intent : applied) {
+            intent.future.complete(null);
+        }
+    }
+}
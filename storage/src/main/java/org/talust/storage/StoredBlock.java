@@ -0,0 +1,59 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017-2018 talust.org talust.io
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ */
+
+package org.talust.storage;
+
+//按高度遍历时返回的已存储区块,压缩存储的区块在第一次获取内容时才解压
+public class StoredBlock {
+    private int height;//区块高度
+    private byte[] hash;//区块hash
+    private byte[] stored;//区块存储的内容,可能是压缩后的内容
+    private byte[] content;//区块序列化后的内容
+
+    public StoredBlock(int height, byte[] hash, byte[] stored) {
+        this.height = height;
+        this.hash = hash;
+        this.stored = stored;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    public byte[] getHash() {
+        return hash;
+    }
+
+    public byte[] getContent() {
+        if (content == null && stored != null) {
+            content = BlockCodec.get().decode(stored);
+        }
+        return content;
+    }
+
+    public byte[] getStored() {
+        return stored;
+    }
+}
@@ -0,0 +1,134 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017-2018 talust.org talust.io
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ */
+
+package org.talust.storage;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 交易号分配器,每次预留一段交易号并只持久化预留段的上限,段内分配无锁,
+ * 分配出去的交易号一定小于已落盘的上限,重启后从上限继续分配,交易号不会重复,只会留下空洞
+ */
+@Slf4j
+class TranNumberSequence {
+    private final ChainDatabase chainDatabase;
+    private final StorageWriter storageWriter;
+    private final byte[] key;
+    private final long range;
+
+    //下一个待分配的交易号
+    private final AtomicLong next = new AtomicLong();
+    //已落盘的上限,小于该值的交易号可以直接分配
+    private final AtomicLong limit = new AtomicLong();
+    //已提交写入的上限,保证写入的上限单调递增
+    private long requested;
+    private final AtomicBoolean extending = new AtomicBoolean();
+
+    TranNumberSequence(ChainDatabase chainDatabase, StorageWriter storageWriter, byte[] key, long range) {
+        this.chainDatabase = chainDatabase;
+        this.storageWriter = storageWriter;
+        this.key = key;
+        this.range = range;
+    }
+
+    /**
+     * 从持久化的上限恢复,并同步预留第一段交易号
+     *
+     * @param first 没有持久化上限时的第一个交易号
+     */
+    synchronized void init(long first) {
+        byte[] bytes = chainDatabase.get(ChainColumn.META, key);
+        long start = bytes != null ? ByteBuffer.wrap(bytes).getLong() : first;
+        next.set(start);
+        limit.set(start);
+        requested = start;
+        extending.set(false);
+        awaitLimit(start + range);
+    }
+
+    /**
+     * 分配一个交易号,段内只有一次原子递增,用到半段时在后台预留下一段,正常情况下不会等待
+     *
+     * @return
+     */
+    long next() {
+        long number = next.getAndIncrement();
+        long current = limit.get();
+        if (number >= current - range / 2 && extending.compareAndSet(false, true)) {
+            extend(current + range).whenComplete((v, e) -> {
+                if (e != null) {
+                    log.error("预留交易号失败", e);
+                }
+                extending.set(false);
+            });
+        }
+        if (number < current) {
+            return number;
+        }
+        //后台预留跟不上分配速度时才会走到这里
+        awaitLimit(number + 1);
+        return number;
+    }
+
+    /**
+     * 已落盘的上限
+     *
+     * @return
+     */
+    long getLimit() {
+        return limit.get();
+    }
+
+    private void awaitLimit(long target) {
+        while (limit.get() < target) {
+            try {
+                extend(target + range).get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("预留交易号被中断", e);
+            } catch (ExecutionException e) {
+                throw new IllegalStateException("预留交易号失败", e.getCause());
+            }
+        }
+    }
+
+    //在锁内提交写入,写入线程按提交顺序落盘,持久化的上限不会回退
+    private synchronized CompletableFuture<Void> extend(long target) {
+        if (target <= requested) {
+            target = requested;
+        }
+        requested = target;
+        long reserved = target;
+        byte[] value = ByteBuffer.allocate(8).putLong(reserved).array();
+        return storageWriter.put(ChainColumn.META, key, value)
+                .thenRun(() -> limit.accumulateAndGet(reserved, Math::max));
+    }
+}
@@ -25,18 +25,30 @@
 
 package org.talust.storage;
 
-import org.talust.common.tools.Configure;
 import lombok.extern.slf4j.Slf4j;
-import org.rocksdb.Options;
-import org.rocksdb.RocksDB;
-import org.rocksdb.RocksDBException;
-import org.rocksdb.util.SizeUnit;
+import org.talust.common.crypto.Sha256Hash;
+import org.talust.common.model.MessageType;
+import org.talust.common.tools.Configure;
 
-import java.io.File;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
-//交易存储
+//交易存储,链数据库中交易索引的视图
+//交易hash -> (区块高度,区块中的序号,在区块中的偏移量,长度),交易号 -> 交易hash
+//交易索引在区块提交后由单独的线程建立,不影响区块提交
 @Slf4j
 public class TransactionStorage {
+    private static final byte TX_HASH_PREFIX = 'h';
+    private static final byte TRAN_NUMBER_PREFIX = 'n';
+    private static final byte[] TX_INDEX_HEIGHT = "txIndexHeight".getBytes();//已建立交易索引的区块高度
+    private static final int MESSAGE_TYPE = 1;//Message中type的字段号
+    private static final int MESSAGE_CONTENT = 2;//Message中content的字段号
+    private static final int TRAN_NUMBER = 2;//Transaction中tranNumber的字段号
+
     private static TransactionStorage instance = new TransactionStorage();
 
     private TransactionStorage() {
@@ -46,51 +58,179 @@ public class TransactionStorage {
         return instance;
     }
 
-    private RocksDB db;
-    final Options options = new Options()
-            .setCreateIfMissing(true)
-            .setWriteBufferSize(8 * SizeUnit.KB)
-            .setMaxWriteBufferNumber(3)
-            .setMaxBackgroundCompactions(10);
-    //.setCompressionType(CompressionType.SNAPPY_COMPRESSION)
-    //.setCompactionStyle(CompactionStyle.UNIVERSAL);
-
-    static {
-        try {
-            RocksDB.loadLibrary();
-        } catch (Exception e) {
-            e.printStackTrace();
+    private ChainDatabase chainDatabase = ChainDatabase.get();
+    private BlockStorage blockStorage = BlockStorage.get();
+    private ExecutorService indexExecutor = Executors.newSingleThreadExecutor(r -> {
+        Thread thread = new Thread(r, "tx-index");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private volatile int indexedHeight = -1;
+
+    public void init() {
+        chainDatabase.init();
+        byte[] bytes = chainDatabase.get(ChainColumn.META, TX_INDEX_HEIGHT);
+        indexedHeight = bytes != null ? HeightKey.decode(bytes) : -1;
+        if (Configure.FOLLOWER) {//交易索引由主节点建立
+            return;
         }
+        //补建上次退出前尚未建立索引的区块
+        indexExecutor.submit(() -> reindex(indexedHeight + 1, Integer.MAX_VALUE));
     }
 
-    public void init() {
-        try {
-            String dataBlock = Configure.DATA_TRANSACTION;
-            File file = new File(dataBlock);
-            if (!file.exists()) {
-                file.mkdirs();
+    public CompletableFuture<Void> put(byte[] key, byte[] value) {
+        return StorageWriter.get().put(ChainColumn.TX_INDEX, key, value);
+    }
+
+    public byte[] get(byte[] key) {
+        return chainDatabase.get(ChainColumn.TX_INDEX, key);
+    }
+
+    /**
+     * 区块提交后异步建立该区块的交易索引
+     *
+     * @param height
+     * @param blockHash
+     */
+    public void indexBlock(int height, byte[] blockHash) {
+        indexExecutor.submit(() -> {
+            try {
+                byte[] block = blockStorage.get(blockHash);
+                if (block != null) {
+                    index(height, ByteBuffer.wrap(block));
+                }
+            } catch (Throwable e) {
+                log.error("建立区块高度:{} 的交易索引失败", height, e);
             }
-            log.info("保存交易数据路径为:{}", dataBlock);
-            db = RocksDB.open(options, dataBlock);
-        } catch (RocksDBException e) {
-            e.printStackTrace();
+        });
+    }
+
+    private void reindex(int fromHeight, int toHeight) {
+        int count = 0;
+        try (BlockCursor cursor = blockStorage.scan(fromHeight, toHeight)) {
+            while (cursor.hasNext()) {
+                StoredBlock block = cursor.next();
+                if (block.getContent() != null) {
+                    index(block.getHeight(), ByteBuffer.wrap(block.getContent()));
+                    count++;
+                }
+            }
+        } catch (Throwable e) {
+            log.error("补建交易索引失败", e);
+        }
+        if (count > 0) {
+            log.info("补建区块高度:{} 起的交易索引,共:{} 个区块", fromHeight, count);
         }
     }
 
-    public void put(byte[] key, byte[] value) {
-        try {
-            db.put(key, value);
-        } catch (Exception e) {
+    /**
+     * 建立一个区块的交易索引,只定位区块字节中的字段,不反序列化区块与交易
+     *
+     * @param height
+     * @param block
+     */
+    void index(int height, ByteBuffer block) {
+        List<int[]> slices = ProtoWire.blockData(block);
+        try (BlockCommit commit = chainDatabase.newCommit()) {
+            for (int idx = 0; idx < slices.size(); idx++) {
+                int[] slice = slices.get(idx);
+                ByteBuffer datum = block.duplicate();
+                datum.position(block.position() + slice[0]);
+                datum.limit(datum.position() + slice[1]);
+                ByteBuffer message = datum.slice();
+                ByteBuffer content = ProtoWire.bytesField(message, MESSAGE_CONTENT);
+                if (content == null) {
+                    continue;
+                }
+                byte[] contentBytes = new byte[content.remaining()];
+                content.duplicate().get(contentBytes);
+                byte[] txHash = Sha256Hash.of(contentBytes).getBytes();
+                byte[] location = ByteBuffer.allocate(16).putInt(height).putInt(idx).putInt(slice[0]).putInt(slice[1]).array();
+                commit.put(ChainColumn.TX_INDEX, key(TX_HASH_PREFIX, txHash), location);
+                if (ProtoWire.varintField(message, MESSAGE_TYPE, -1) != MessageType.TRANSACTION.getType()) {
+                    continue;//其他类型的内容没有交易号
+                }
+                long tranNumber = ProtoWire.varintField(content, TRAN_NUMBER, -1);
+                if (tranNumber >= 0) {
+                    commit.put(ChainColumn.TX_INDEX, tranNumberKey(tranNumber), txHash);
+                }
+            }
+            if (height > indexedHeight) {
+                indexedHeight = height;
+                commit.put(ChainColumn.META, TX_INDEX_HEIGHT, HeightKey.encode(height));
+            }
+            commit.commit();
         }
     }
 
-    public byte[] get(byte[] key) {
-        try {
-            return db.get(key);
-        } catch (RocksDBException e) {
-            e.printStackTrace();
+    /**
+     * 根据交易hash获取交易所在的区块业务数据,即序列化后的Message,
+     * 未压缩的区块只读取区块文件中该交易所在的部分,压缩的区块需整体解压
+     *
+     * @param txHash 交易内容的hash
+     * @return
+     */
+    public byte[] getTransaction(byte[] txHash) {
+        byte[] location = chainDatabase.get(ChainColumn.TX_INDEX, key(TX_HASH_PREFIX, txHash));
+        if (location == null) {
+            return null;
+        }
+        ByteBuffer loc = ByteBuffer.wrap(location);
+        int height = loc.getInt();
+        loc.getInt();
+        int offset = loc.getInt();
+        int length = loc.getInt();
+        byte[] blockHash = blockStorage.getHashByHeight(height);
+        if (blockHash == null) {
+            return null;
+        }
+        ByteBuffer block = blockStorage.getBuffer(blockHash);
+        if (block == null || block.remaining() < offset + length) {
+            return null;
+        }
+        byte[] datum = new byte[length];
+        block.position(block.position() + offset);
+        block.get(datum);
+        //回滚后该高度可能已是另一个区块,索引指向的交易与hash不一致时视为不存在
+        ByteBuffer content = ProtoWire.bytesField(ByteBuffer.wrap(datum), MESSAGE_CONTENT);
+        if (content == null) {
+            return null;
+        }
+        byte[] contentBytes = new byte[content.remaining()];
+        content.get(contentBytes);
+        if (!Arrays.equals(Sha256Hash.of(contentBytes).getBytes(), txHash)) {
+            return null;
         }
-        return null;
+        return datum;
     }
 
+    /**
+     * 根据交易号获取交易hash
+     *
+     * @param tranNumber
+     * @return
+     */
+    public byte[] getTxHash(long tranNumber) {
+        return chainDatabase.get(ChainColumn.TX_INDEX, tranNumberKey(tranNumber));
+    }
+
+    /**
+     * 已建立交易索引的最高区块高度
+     *
+     * @return
+     */
+    public int getIndexedHeight() {
+        return indexedHeight;
+    }
+
+    private static byte[] key(byte prefix, byte[] hash) {
+        byte[] key = new byte[hash.length + 1];
+        key[0] = prefix;
+        System.arraycopy(hash, 0, key, 1, hash.length);
+        return key;
+    }
+
+    private static byte[] tranNumberKey(long tranNumber) {
+        return ByteBuffer.allocate(9).put(TRAN_NUMBER_PREFIX).putLong(tranNumber).array();
+    }
 }
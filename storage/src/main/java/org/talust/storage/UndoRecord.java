@@ -0,0 +1,145 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017-2018 talust.org talust.io
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ */
+
+package org.talust.storage;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 区块的撤销记录,记录区块提交中每个写操作之前的状态,
+ * 回滚时按相反顺序重放:新增的数据删除,删除或覆盖的数据恢复原值,余额增量取反合并
+ */
+class UndoRecord {
+    private static final byte PUT = 1;
+    private static final byte DELETE = 2;
+    private static final byte MERGE = 3;
+
+    private List<Op> ops = new ArrayList<>();
+
+    private static class Op {
+        byte type;
+        ChainColumn column;
+        byte[] key;
+        byte[] value;
+
+        Op(byte type, ChainColumn column, byte[] key, byte[] value) {
+            this.type = type;
+            this.column = column;
+            this.key = key;
+            this.value = value;
+        }
+    }
+
+    /**
+     * 记录一次写入或删除之前的值,原值为null表示写入前不存在,回滚时删除
+     *
+     * @param column
+     * @param key
+     * @param previous
+     */
+    void restore(ChainColumn column, byte[] key, byte[] previous) {
+        ops.add(previous == null ? new Op(DELETE, column, key, null) : new Op(PUT, column, key, previous));
+    }
+
+    /**
+     * 记录一次余额增量合并,回滚时合并相反的增量
+     *
+     * @param column
+     * @param key
+     * @param delta 8字节小端序的增量
+     */
+    void negate(ChainColumn column, byte[] key, byte[] delta) {
+        long amount = ByteBuffer.wrap(delta).order(ByteOrder.LITTLE_ENDIAN).getLong();
+        byte[] reverse = ByteBuffer.allocate(8).order(ByteOrder.LITTLE_ENDIAN).putLong(-amount).array();
+        ops.add(new Op(MERGE, column, key, reverse));
+    }
+
+    int size() {
+        return ops.size();
+    }
+
+    //回滚到保存点时丢弃保存点之后的记录
+    void truncate(int size) {
+        ops.subList(size, ops.size()).clear();
+    }
+
+    /**
+     * 按相反顺序将撤销操作写入提交中
+     *
+     * @param commit
+     */
+    void apply(BlockCommit commit) {
+        for (int i = ops.size() - 1; i >= 0; i--) {
+            Op op = ops.get(i);
+            if (op.type == PUT) {
+                commit.put(op.column, op.key, op.value);
+            } else if (op.type == DELETE) {
+                commit.delete(op.column, op.key);
+            } else {
+                commit.merge(op.column, op.key, op.value);
+            }
+        }
+    }
+
+    //每个操作编码为:类型(1)+列族编号(1)+键长(2)+键+值长(4)+值
+    byte[] encode() {
+        int length = 0;
+        for (Op op : ops) {
+            length += 8 + op.key.length + (op.value != null ? op.value.length : 0);
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        for (Op op : ops) {
+            buffer.put(op.type).put((byte) op.column.getId()).putShort((short) op.key.length).put(op.key);
+            if (op.value != null) {
+                buffer.putInt(op.value.length).put(op.value);
+            } else {
+                buffer.putInt(-1);
+            }
+        }
+        return buffer.array();
+    }
+
+    static UndoRecord decode(byte[] bytes) {
+        UndoRecord record = new UndoRecord();
+        ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        while (buffer.hasRemaining()) {
+            byte type = buffer.get();
+            ChainColumn column = ChainColumn.byId(buffer.get());
+            byte[] key = new byte[buffer.getShort() & 0xFFFF];
+            buffer.get(key);
+            int valueLength = buffer.getInt();
+            byte[] value = null;
+            if (valueLength >= 0) {
+                value = new byte[valueLength];
+                buffer.get(value);
+            }
+            record.ops.add(new Op(type, column, key, value));
+        }
+        return record;
+    }
+}
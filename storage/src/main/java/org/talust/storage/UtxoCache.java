@@ -0,0 +1,255 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017-2018 talust.org talust.io
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ */
+
+package org.talust.storage;
+
+import lombok.extern.slf4j.Slf4j;
+import org.talust.common.tools.Configure;
+
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 交易输出缓存,位于ChainStateStorage之前,缓存中只保存已提交的交易输出.
+ * 区块中交易输出的新增与花费先记录在该区块提交自己的修改中,提交时一次性写入区块的批次,
+ * 写入成功后才合并到缓存,多个区块同时处理时互不可见,提交失败时直接丢弃,
+ * 在同一个区块中产生又被花费的交易输出不会写入磁盘
+ */
+@Slf4j
+public class UtxoCache {
+    private static final int ENTRY_OVERHEAD = 96;//每个缓存项除键值外的估算内存开销
+
+    private static UtxoCache instance = new UtxoCache();
+
+    private UtxoCache() {
+    }
+
+    public static UtxoCache get() {
+        return instance;
+    }
+
+    private ChainStateStorage chainStateStorage = ChainStateStorage.get();
+    private Map<ByteBuffer, Entry> entries = new LinkedHashMap<>(1024, 0.75f, true);
+    private long usedBytes = 0;//当前缓存占用的估算内存
+    private AtomicLong hits = new AtomicLong();
+    private AtomicLong misses = new AtomicLong();
+
+    static class Entry {
+        long tranNumber;
+        int item;
+        byte[] key;
+        byte[] address;//交易输出的目标地址,用于维护地址索引,从磁盘加载时未知
+        byte[] value;//为null表示已被花费
+        boolean fresh;//是否为本次提交中新产生,磁盘上不存在
+
+        Entry(long tranNumber, int item, byte[] address, byte[] value, boolean fresh) {
+            this.tranNumber = tranNumber;
+            this.item = item;
+            this.key = ChainStateStorage.utxoKey(tranNumber, item);
+            this.address = address;
+            this.value = value;
+            this.fresh = fresh;
+        }
+
+        long size() {
+            return ENTRY_OVERHEAD + key.length + (address != null ? address.length : 0) + (value != null ? value.length : 0);
+        }
+    }
+
+    /**
+     * 一次区块提交中对交易输出的修改,按修改顺序保存
+     */
+    static class Changes {
+        private Map<ByteBuffer, Entry> entries = new LinkedHashMap<>();
+    }
+
+    /**
+     * 获取已提交的未花费交易输出,已花费或不存在时返回null
+     *
+     * @param tranNumber 交易号
+     * @param item 输出项
+     * @return
+     */
+    public synchronized byte[] get(long tranNumber, int item) {
+        byte[] key = ChainStateStorage.utxoKey(tranNumber, item);
+        Entry entry = entries.get(ByteBuffer.wrap(key));
+        if (entry != null) {
+            hits.incrementAndGet();
+            return entry.value;
+        }
+        misses.incrementAndGet();
+        byte[] value = chainStateStorage.get(key);//在锁内读取,合并提交的修改时不会被旧值覆盖
+        if (value != null) {
+            putEntry(new Entry(tranNumber, item, null, value, false));
+            evict();
+        }
+        return value;
+    }
+
+    /**
+     * 获取区块提交中看到的未花费交易输出,先看本次提交中的修改,再看已提交的数据
+     *
+     * @param commit
+     * @param tranNumber
+     * @param item
+     * @return
+     */
+    public byte[] get(BlockCommit commit, long tranNumber, int item) {
+        Entry change = commit.utxoChanges().entries.get(ByteBuffer.wrap(ChainStateStorage.utxoKey(tranNumber, item)));
+        return change != null ? change.value : get(tranNumber, item);
+    }
+
+    /**
+     * 在区块提交中新增交易输出,提交时同时写入交易输出与地址索引
+     *
+     * @param commit
+     * @param tranNumber
+     * @param item
+     * @param address
+     * @param value
+     */
+    public void add(BlockCommit commit, long tranNumber, int item, byte[] address, byte[] value) {
+        Map<ByteBuffer, Entry> changes = commit.utxoChanges().entries;
+        byte[] key = ChainStateStorage.utxoKey(tranNumber, item);
+        Entry old = changes.get(ByteBuffer.wrap(key));
+        boolean fresh = old != null ? old.fresh : get(tranNumber, item) == null;//以已提交的数据判断,缓存已淘汰的输出也可能存在于磁盘
+        changes.put(ByteBuffer.wrap(key), new Entry(tranNumber, item, address, value, fresh));
+    }
+
+    /**
+     * 在区块提交中花费交易输出,本次提交中新产生的直接移除,否则记录删除,提交时同时删除交易输出与地址索引
+     *
+     * @param commit
+     * @param tranNumber
+     * @param item
+     * @param address 交易输出的目标地址
+     * @return 被花费的交易输出,不存在时返回null
+     */
+    public byte[] spend(BlockCommit commit, long tranNumber, int item, byte[] address) {
+        byte[] value = get(commit, tranNumber, item);
+        if (value == null) {
+            return null;
+        }
+        Map<ByteBuffer, Entry> changes = commit.utxoChanges().entries;
+        ByteBuffer key = ByteBuffer.wrap(ChainStateStorage.utxoKey(tranNumber, item));
+        Entry change = changes.get(key);
+        if (change != null && change.fresh) {
+            changes.remove(key);
+        } else {
+            changes.put(key, new Entry(tranNumber, item, address, null, false));
+        }
+        return value;
+    }
+
+    /**
+     * 将区块提交中的修改写入该提交的批次,交易输出与地址索引在同一批次中修改
+     *
+     * @param commit
+     * @param changes
+     * @return 写入的修改数
+     */
+    int flush(BlockCommit commit, Changes changes) {
+        for (Entry entry : changes.entries.values()) {
+            byte[] addressKey = entry.address != null ? AddressUtxoKey.encode(entry.address, entry.tranNumber, entry.item) : null;
+            if (entry.value == null) {
+                commit.delete(ChainColumn.UTXO, entry.key);
+                if (addressKey != null) {
+                    commit.delete(ChainColumn.ADDRESS_UTXO, addressKey);
+                }
+            } else {
+                commit.put(ChainColumn.UTXO, entry.key, entry.value);
+                if (addressKey != null) {
+                    commit.put(ChainColumn.ADDRESS_UTXO, addressKey, entry.value);
+                }
+            }
+        }
+        return changes.entries.size();
+    }
+
+    /**
+     * 区块提交写入成功后,将其修改合并到缓存
+     *
+     * @param changes
+     */
+    synchronized void merge(Changes changes) {
+        for (Entry entry : changes.entries.values()) {
+            if (entry.value == null) {
+                Entry old = entries.remove(ByteBuffer.wrap(entry.key));
+                if (old != null) {
+                    usedBytes -= old.size();
+                }
+            } else {
+                entry.fresh = false;
+                putEntry(entry);
+            }
+        }
+        evict();
+        log.debug("交易输出缓存合并修改数:{},缓存项:{},占用:{},命中:{},未命中:{}", changes.entries.size(), entries.size(), usedBytes, hits.get(), misses.get());
+    }
+
+    /**
+     * 清空缓存,回滚后缓存中的交易输出可能已不存在,之后从磁盘重新加载
+     */
+    public synchronized void discard() {
+        entries.clear();
+        usedBytes = 0;
+    }
+
+    private void putEntry(Entry entry) {
+        Entry old = entries.put(ByteBuffer.wrap(entry.key), entry);
+        if (old != null) {
+            usedBytes -= old.size();
+        }
+        usedBytes += entry.size();
+    }
+
+    //淘汰最久未使用的缓存项
+    private void evict() {
+        Iterator<Entry> iterator = entries.values().iterator();
+        while (usedBytes > Configure.UTXO_CACHE_SIZE && iterator.hasNext()) {
+            usedBytes -= iterator.next().size();
+            iterator.remove();
+        }
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    public synchronized long getUsedBytes() {
+        return usedBytes;
+    }
+}
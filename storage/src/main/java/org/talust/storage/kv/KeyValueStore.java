@@ -0,0 +1,94 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017-2018 talust.org talust.io
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ */
+
+package org.talust.storage.kv;
+
+import org.talust.storage.ChainColumn;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * 键值存储引擎,链数据库的各个列族通过该接口读写,可选择RocksDB引擎或内存引擎,
+ * 合并写入按8字节小端整数相加,用于余额增减
+ */
+public interface KeyValueStore {
+
+    byte[] get(ChainColumn column, byte[] key);
+
+    /**
+     * 批量读取同一列族的多个键,结果与键一一对应,不存在的为null
+     *
+     * @param column
+     * @param keys
+     * @return
+     */
+    List<byte[]> multiGet(ChainColumn column, List<byte[]> keys);
+
+    void put(ChainColumn column, byte[] key, byte[] value);
+
+    void merge(ChainColumn column, byte[] key, byte[] value);
+
+    void delete(ChainColumn column, byte[] key);
+
+    /**
+     * 创建写批次,批次中的写操作在写入时一次性生效,调用方负责关闭
+     *
+     * @return
+     */
+    KvBatch newBatch();
+
+    /**
+     * 创建按键顺序遍历列族的迭代器,调用方负责关闭
+     *
+     * @param column
+     * @param prefixSameAsStart 只遍历与起始键前缀相同的数据,前缀长度由列族决定
+     * @return
+     */
+    KvIterator newIterator(ChainColumn column, boolean prefixSameAsStart);
+
+    /**
+     * 创建当前数据的只读快照,调用方负责关闭
+     *
+     * @return
+     */
+    KvSnapshot getSnapshot();
+
+    /**
+     * 将当前数据制作为可直接打开的数据目录
+     *
+     * @param dir 目标目录,不能已存在
+     * @throws IOException
+     */
+    void checkpoint(String dir) throws IOException;
+
+    /**
+     * 只读的从实例追赶主实例的写入,其他引擎无需处理
+     */
+    default void catchUp() {
+    }
+
+    void close();
+}
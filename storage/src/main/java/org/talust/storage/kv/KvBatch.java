@@ -0,0 +1,70 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017-2018 talust.org talust.io
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ */
+
+package org.talust.storage.kv;
+
+import org.talust.storage.ChainColumn;
+
+/**
+ * 写批次,收集多个写操作后一次性写入,读取时优先读取批次中尚未写入的数据
+ */
+public interface KvBatch extends AutoCloseable {
+
+    void put(ChainColumn column, byte[] key, byte[] value);
+
+    void merge(ChainColumn column, byte[] key, byte[] value);
+
+    void delete(ChainColumn column, byte[] key);
+
+    /**
+     * 读取数据,批次中有该键的修改时返回修改后的值
+     *
+     * @param column
+     * @param key
+     * @return
+     */
+    byte[] get(ChainColumn column, byte[] key);
+
+    void setSavePoint();
+
+    void rollbackToSavePoint();
+
+    /**
+     * 批次中的写操作数
+     *
+     * @return
+     */
+    int count();
+
+    /**
+     * 一次性写入批次中的所有写操作
+     *
+     * @param sync 是否同步落盘
+     */
+    void write(boolean sync);
+
+    @Override
+    void close();
+}
@@ -0,0 +1,431 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017-2018 talust.org talust.io
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ */
+
+package org.talust.storage.kv;
+
+import org.talust.storage.AddressUtxoKey;
+import org.talust.storage.ChainColumn;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.*;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.CopyOnWriteArraySet;
+
+/**
+ * 内存存储引擎,每个列族为一个按无符号字节序排列的ConcurrentSkipListMap,不依赖本地库与磁盘,
+ * 用于临时的验证或中继节点以及只关心CPU开销的基准测试,进程退出后数据丢失。
+ * 读取不加锁,写入串行执行.快照不复制数据,写入前把被修改的键的原值保存到每个未关闭的快照中,
+ * 创建快照的开销与数据量无关,每个区块发布一个视图时也只保存该区块之后被修改的数据
+ */
+public class MemoryKeyValueStore implements KeyValueStore {
+    static final Comparator<byte[]> COMPARATOR = (a, b) -> {
+        int length = Math.min(a.length, b.length);
+        for (int idx = 0; idx < length; idx++) {
+            int cmp = (a[idx] & 0xFF) - (b[idx] & 0xFF);
+            if (cmp != 0) {
+                return cmp;
+            }
+        }
+        return a.length - b.length;
+    };
+
+    private static final byte[] DELETED = new byte[0];//批次中被删除的键,或快照创建时不存在的键
+
+    private final Map<ChainColumn, ConcurrentSkipListMap<byte[], byte[]>> columns = new EnumMap<>(ChainColumn.class);
+    private final Object writeLock = new Object();
+    private final Set<MemorySnapshot> snapshots = new CopyOnWriteArraySet<>();//未关闭的快照
+
+    public MemoryKeyValueStore() {
+        for (ChainColumn column : ChainColumn.values()) {
+            columns.put(column, new ConcurrentSkipListMap<>(COMPARATOR));
+        }
+    }
+
+    @Override
+    public byte[] get(ChainColumn column, byte[] key) {
+        return columns.get(column).get(key);
+    }
+
+    @Override
+    public List<byte[]> multiGet(ChainColumn column, List<byte[]> keys) {
+        return multiGet(columns.get(column), keys);
+    }
+
+    private static List<byte[]> multiGet(NavigableMap<byte[], byte[]> map, List<byte[]> keys) {
+        List<byte[]> values = new ArrayList<>(keys.size());
+        for (byte[] key : keys) {
+            values.add(map.get(key));
+        }
+        return values;
+    }
+
+    @Override
+    public void put(ChainColumn column, byte[] key, byte[] value) {
+        synchronized (writeLock) {
+            write(column, key, value, false);
+        }
+    }
+
+    @Override
+    public void merge(ChainColumn column, byte[] key, byte[] value) {
+        synchronized (writeLock) {
+            write(column, key, value, true);
+        }
+    }
+
+    @Override
+    public void delete(ChainColumn column, byte[] key) {
+        synchronized (writeLock) {
+            write(column, key, null, false);
+        }
+    }
+
+    /**
+     * 在写锁内修改一个键,修改前先把原值保存到未关闭的快照中
+     *
+     * @param column
+     * @param key
+     * @param value 为null表示删除
+     * @param merge 是否按余额增量合并
+     */
+    private void write(ChainColumn column, byte[] key, byte[] value, boolean merge) {
+        ConcurrentSkipListMap<byte[], byte[]> map = columns.get(column);
+        byte[] old = map.get(key);
+        for (MemorySnapshot snapshot : snapshots) {
+            snapshot.keep(column, key, old);
+        }
+        if (merge) {
+            map.put(key, add(old, value));
+        } else if (value == null) {
+            map.remove(key);
+        } else {
+            map.put(key, value);
+        }
+    }
+
+    //与RocksDB的UInt64AddOperator一致,按8字节小端整数相加
+    private static byte[] add(byte[] base, byte[] delta) {
+        long value = base != null ? ByteBuffer.wrap(base).order(ByteOrder.LITTLE_ENDIAN).getLong() : 0;
+        value += ByteBuffer.wrap(delta).order(ByteOrder.LITTLE_ENDIAN).getLong();
+        return ByteBuffer.allocate(8).order(ByteOrder.LITTLE_ENDIAN).putLong(value).array();
+    }
+
+    @Override
+    public KvBatch newBatch() {
+        return new MemoryBatch();
+    }
+
+    @Override
+    public KvIterator newIterator(ChainColumn column, boolean prefixSameAsStart) {
+        int prefixLength = prefixSameAsStart && column == ChainColumn.ADDRESS_UTXO ? AddressUtxoKey.PREFIX_LENGTH : 0;
+        return new MemoryIterator(columns.get(column), null, prefixLength);
+    }
+
+    @Override
+    public KvSnapshot getSnapshot() {
+        MemorySnapshot snapshot = new MemorySnapshot();
+        synchronized (writeLock) {//与写入互斥,快照创建之后的修改都会保存原值
+            snapshots.add(snapshot);
+        }
+        return snapshot;
+    }
+
+    @Override
+    public void checkpoint(String dir) throws IOException {
+        throw new IOException("内存存储引擎不支持制作快照");
+    }
+
+    @Override
+    public void close() {
+        synchronized (writeLock) {
+            for (ConcurrentSkipListMap<byte[], byte[]> map : columns.values()) {
+                map.clear();
+            }
+        }
+    }
+
+    private static class Op {
+        ChainColumn column;
+        byte[] key;
+        byte[] value;//为null表示删除
+        boolean merge;
+
+        Op(ChainColumn column, byte[] key, byte[] value, boolean merge) {
+            this.column = column;
+            this.key = key;
+            this.value = value;
+            this.merge = merge;
+        }
+    }
+
+    private class MemoryBatch implements KvBatch {
+        private List<Op> ops = new ArrayList<>();
+        //批次中修改后的值,用于读取本批次中尚未写入的数据
+        private Map<ChainColumn, TreeMap<byte[], byte[]>> overlay = new EnumMap<>(ChainColumn.class);
+        private Deque<Integer> savePoints = new ArrayDeque<>();
+
+        @Override
+        public void put(ChainColumn column, byte[] key, byte[] value) {
+            add(new Op(column, key, value, false));
+        }
+
+        @Override
+        public void merge(ChainColumn column, byte[] key, byte[] value) {
+            add(new Op(column, key, value, true));
+        }
+
+        @Override
+        public void delete(ChainColumn column, byte[] key) {
+            add(new Op(column, key, null, false));
+        }
+
+        private void add(Op op) {
+            ops.add(op);
+            apply(op);
+        }
+
+        private void apply(Op op) {
+            byte[] value = op.value;
+            if (op.merge) {
+                value = MemoryKeyValueStore.add(get(op.column, op.key), op.value);
+            }
+            overlay.computeIfAbsent(op.column, c -> new TreeMap<>(COMPARATOR)).put(op.key, value != null ? value : DELETED);
+        }
+
+        @Override
+        public byte[] get(ChainColumn column, byte[] key) {
+            TreeMap<byte[], byte[]> changes = overlay.get(column);
+            byte[] value = changes != null ? changes.get(key) : null;
+            if (value == null) {
+                return MemoryKeyValueStore.this.get(column, key);
+            }
+            return value == DELETED ? null : value;
+        }
+
+        @Override
+        public void setSavePoint() {
+            savePoints.push(ops.size());
+        }
+
+        @Override
+        public void rollbackToSavePoint() {
+            if (savePoints.isEmpty()) {
+                throw new IllegalStateException("没有可回滚的保存点");
+            }
+            ops.subList(savePoints.pop(), ops.size()).clear();
+            overlay.clear();
+            for (Op op : ops) {
+                apply(op);
+            }
+        }
+
+        @Override
+        public int count() {
+            return ops.size();
+        }
+
+        @Override
+        public void write(boolean sync) {
+            synchronized (writeLock) {
+                for (Op op : ops) {
+                    MemoryKeyValueStore.this.write(op.column, op.key, op.value, op.merge);
+                }
+            }
+        }
+
+        @Override
+        public void close() {
+            ops.clear();
+            overlay.clear();
+        }
+    }
+
+    /**
+     * 快照,读取时先读当前数据,再用快照创建后被修改的键的原值覆盖.
+     * 写入总是先保存原值再修改当前数据,读到修改后的数据时一定能读到保存的原值
+     */
+    private class MemorySnapshot implements KvSnapshot {
+        //快照创建后被修改的键在创建时的值,当时不存在的键保存为DELETED
+        private Map<ChainColumn, ConcurrentSkipListMap<byte[], byte[]>> originals = new EnumMap<>(ChainColumn.class);
+
+        MemorySnapshot() {
+            for (ChainColumn column : ChainColumn.values()) {
+                originals.put(column, new ConcurrentSkipListMap<>(COMPARATOR));
+            }
+        }
+
+        //只保存第一次修改前的值
+        void keep(ChainColumn column, byte[] key, byte[] old) {
+            originals.get(column).putIfAbsent(key, old != null ? old : DELETED);
+        }
+
+        @Override
+        public byte[] get(ChainColumn column, byte[] key) {
+            return visible(columns.get(column), originals.get(column), key);
+        }
+
+        @Override
+        public List<byte[]> multiGet(ChainColumn column, List<byte[]> keys) {
+            List<byte[]> values = new ArrayList<>(keys.size());
+            for (byte[] key : keys) {
+                values.add(get(column, key));
+            }
+            return values;
+        }
+
+        @Override
+        public KvIterator newIterator(ChainColumn column) {
+            return new MemoryIterator(columns.get(column), originals.get(column), 0);
+        }
+
+        @Override
+        public void close() {
+            snapshots.remove(this);
+        }
+    }
+
+    //当前数据中的值被快照保存的原值覆盖,originals为null时直接读取当前数据
+    private static byte[] visible(NavigableMap<byte[], byte[]> map, NavigableMap<byte[], byte[]> originals, byte[] key) {
+        byte[] value = map.get(key);
+        byte[] original = originals != null ? originals.get(key) : null;
+        if (original != null) {
+            return original == DELETED ? null : original;
+        }
+        return value;
+    }
+
+    private static class MemoryIterator implements KvIterator {
+        private NavigableMap<byte[], byte[]> map;
+        private NavigableMap<byte[], byte[]> originals;//快照保存的原值,遍历当前数据时为null
+        private int prefixLength;//大于0时只遍历与起始键前缀相同的数据
+        private byte[] prefix;
+        private Map.Entry<byte[], byte[]> current;
+
+        MemoryIterator(NavigableMap<byte[], byte[]> map, NavigableMap<byte[], byte[]> originals, int prefixLength) {
+            this.map = map;
+            this.originals = originals;
+            this.prefixLength = prefixLength;
+        }
+
+        /**
+         * 在当前数据与原值中找到下一个可见的键
+         *
+         * @param key 起始键,为null时从头或从尾开始
+         * @param inclusive 是否包含起始键
+         * @param ascending 是否向后查找
+         * @return
+         */
+        private Map.Entry<byte[], byte[]> find(byte[] key, boolean inclusive, boolean ascending) {
+            while (true) {
+                byte[] found = nearer(nextKey(map, key, inclusive, ascending), originals != null ? nextKey(originals, key, inclusive, ascending) : null, ascending);
+                if (found == null) {
+                    return null;
+                }
+                byte[] value = visible(map, originals, found);
+                if (value != null) {
+                    return new AbstractMap.SimpleImmutableEntry<>(found, value);
+                }
+                key = found;//快照创建后新增的键,或刚被删除的键
+                inclusive = false;
+            }
+        }
+
+        private static byte[] nextKey(NavigableMap<byte[], byte[]> map, byte[] key, boolean inclusive, boolean ascending) {
+            if (key == null) {
+                Map.Entry<byte[], byte[]> entry = ascending ? map.firstEntry() : map.lastEntry();
+                return entry != null ? entry.getKey() : null;
+            }
+            if (ascending) {
+                return inclusive ? map.ceilingKey(key) : map.higherKey(key);
+            }
+            return inclusive ? map.floorKey(key) : map.lowerKey(key);
+        }
+
+        private static byte[] nearer(byte[] a, byte[] b, boolean ascending) {
+            if (a == null || b == null) {
+                return a != null ? a : b;
+            }
+            int cmp = COMPARATOR.compare(a, b);
+            return (ascending ? cmp <= 0 : cmp >= 0) ? a : b;
+        }
+
+        @Override
+        public void seek(byte[] key) {
+            prefix = prefixLength > 0 && key.length >= prefixLength ? Arrays.copyOf(key, prefixLength) : null;
+            current = find(key, true, true);
+        }
+
+        @Override
+        public void seekToFirst() {
+            prefix = null;
+            current = find(null, true, true);
+        }
+
+        @Override
+        public void seekToLast() {
+            prefix = null;
+            current = find(null, true, false);
+        }
+
+        @Override
+        public boolean isValid() {
+            if (current == null) {
+                return false;
+            }
+            if (prefix == null) {
+                return true;
+            }
+            byte[] key = current.getKey();
+            return key.length >= prefix.length && COMPARATOR.compare(Arrays.copyOf(key, prefix.length), prefix) == 0;
+        }
+
+        @Override
+        public void next() {
+            current = find(current.getKey(), false, true);
+        }
+
+        @Override
+        public void prev() {
+            current = find(current.getKey(), false, false);
+        }
+
+        @Override
+        public byte[] key() {
+            return current.getKey();
+        }
+
+        @Override
+        public byte[] value() {
+            return current.getValue();
+        }
+
+        @Override
+        public void close() {
+            current = null;
+        }
+    }
+}
@@ -0,0 +1,450 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017-2018 talust.org talust.io
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ */
+
+package org.talust.storage.kv;
+
+import lombok.extern.slf4j.Slf4j;
+import org.rocksdb.*;
+import org.rocksdb.util.SizeUnit;
+import org.talust.common.tools.Configure;
+import org.talust.storage.AddressUtxoKey;
+import org.talust.storage.ChainColumn;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * RocksDB存储引擎,每个列族对应RocksDB的一个列族,按各自的读写特点单独调优,
+ * 所有列族共享同一个块缓存与写缓冲管理器,避免争抢内存与压缩线程
+ */
+@Slf4j
+public class RocksKeyValueStore implements KeyValueStore {
+
+    static {
+        try {
+            RocksDB.loadLibrary();
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+    }
+
+    private RocksDB db;
+    private DBOptions dbOptions;
+    private Cache blockCache;
+    private WriteBufferManager writeBufferManager;
+    private MergeOperator amountOperator;//余额增减使用的合并操作,数值为8字节小端整数
+    private List<ColumnFamilyOptions> columnOptions = new ArrayList<>();
+    private List<Filter> filters = new ArrayList<>();
+    private List<ColumnFamilyHandle> handles = new ArrayList<>();
+    private Map<ChainColumn, ColumnFamilyHandle> mapHandles = new EnumMap<>(ChainColumn.class);
+
+    private boolean secondary;
+
+    /**
+     * 打开指定目录下的RocksDB
+     *
+     * @param dir
+     * @throws RocksDBException
+     */
+    public RocksKeyValueStore(String dir) throws RocksDBException {
+        this(dir, null);
+    }
+
+    /**
+     * 打开指定目录下的RocksDB,secondaryDir不为null时以只读的从实例打开,
+     * 从实例不写入主实例的任何文件,通过catchUp读取主实例新写入的数据
+     *
+     * @param dir 主实例的数据目录
+     * @param secondaryDir 从实例自身的日志目录
+     * @throws RocksDBException
+     */
+    public RocksKeyValueStore(String dir, String secondaryDir) throws RocksDBException {
+        this.secondary = secondaryDir != null;
+        blockCache = new LRUCache(Configure.STORAGE_BLOCK_CACHE_SIZE);
+        writeBufferManager = new WriteBufferManager(Configure.STORAGE_WRITE_BUFFER_SIZE, blockCache);
+        amountOperator = new UInt64AddOperator();
+        int cores = Runtime.getRuntime().availableProcessors();
+        dbOptions = new DBOptions()
+                .setCreateIfMissing(true)
+                .setCreateMissingColumnFamilies(true)
+                .setWriteBufferManager(writeBufferManager)
+                .setIncreaseParallelism(Math.max(2, cores))
+                .setMaxBackgroundJobs(Math.max(2, cores))
+                .setBytesPerSync(SizeUnit.MB)
+                .setKeepLogFileNum(5);
+        if (secondary) {//从实例需要保持所有文件打开,才能跟随主实例的压缩
+            dbOptions.setMaxOpenFiles(-1);
+        }
+
+        List<ColumnFamilyDescriptor> descriptors = new ArrayList<>();
+        ColumnFamilyOptions defaultOptions = new ColumnFamilyOptions();
+        columnOptions.add(defaultOptions);
+        descriptors.add(new ColumnFamilyDescriptor(RocksDB.DEFAULT_COLUMN_FAMILY, defaultOptions));
+        for (ChainColumn column : ChainColumn.values()) {
+            ColumnFamilyOptions options = columnOptions(column);
+            columnOptions.add(options);
+            descriptors.add(new ColumnFamilyDescriptor(column.getNameBytes(), options));
+        }
+        try {
+            if (secondary) {
+                db = RocksDB.openAsSecondary(dbOptions, dir, secondaryDir, descriptors, handles);
+            } else {
+                db = RocksDB.open(dbOptions, dir, descriptors, handles);
+            }
+        } catch (RocksDBException e) {
+            releaseOptions();
+            throw e;
+        }
+        ChainColumn[] columns = ChainColumn.values();
+        for (int idx = 0; idx < columns.length; idx++) {
+            mapHandles.put(columns[idx], handles.get(idx + 1));//第0个为默认列族
+        }
+    }
+
+    /**
+     * 按列族的读写特点设置参数
+     *
+     * @param column
+     * @return
+     */
+    private ColumnFamilyOptions columnOptions(ChainColumn column) {
+        Filter filter = new BloomFilter(10, false);
+        filters.add(filter);
+        BlockBasedTableConfig table = new BlockBasedTableConfig()
+                .setBlockCache(blockCache)
+                .setCacheIndexAndFilterBlocks(true)
+                .setPinL0FilterAndIndexBlocksInCache(true)
+                .setFilterPolicy(filter);
+        ColumnFamilyOptions options = new ColumnFamilyOptions()
+                .setCompressionType(CompressionType.LZ4_COMPRESSION)
+                .setLevelCompactionDynamicLevelBytes(true);
+        switch (column) {
+            case UTXO://同步与校验时高频点查询与更新
+            case BALANCES:
+                table.setBlockSize(4 * SizeUnit.KB);
+                options.setWriteBufferSize(32 * SizeUnit.MB)
+                        .setMaxWriteBufferNumber(4)
+                        .setMinWriteBufferNumberToMerge(2);
+                if (column == ChainColumn.BALANCES) {//余额只做增减,直接写入增量,读取时合并
+                    options.setMergeOperator(amountOperator);
+                }
+                break;
+            case ADDRESS_UTXO://按地址前缀扫描,布隆过滤器按地址前缀建立
+                table.setBlockSize(16 * SizeUnit.KB).setWholeKeyFiltering(false);
+                options.useFixedLengthPrefixExtractor(AddressUtxoKey.PREFIX_LENGTH)
+                        .setMemtablePrefixBloomSizeRatio(0.1)
+                        .setWriteBufferSize(32 * SizeUnit.MB)
+                        .setMaxWriteBufferNumber(4)
+                        .setMinWriteBufferNumberToMerge(2);
+                break;
+            default://索引与元数据,数据量小,区块内容存放在区块文件中,BLOCKS列族只保存位置
+                table.setBlockSize(4 * SizeUnit.KB);
+                options.setWriteBufferSize(8 * SizeUnit.MB)
+                        .setMaxWriteBufferNumber(2);
+                break;
+        }
+        return options.setTableFormatConfig(table);
+    }
+
+    @Override
+    public byte[] get(ChainColumn column, byte[] key) {
+        try {
+            return db.get(mapHandles.get(column), key);
+        } catch (RocksDBException e) {
+            throw new IllegalStateException(e.getMessage(), e);
+        }
+    }
+
+    @Override
+    public List<byte[]> multiGet(ChainColumn column, List<byte[]> keys) {
+        try (ReadOptions readOptions = new ReadOptions()) {
+            return multiGet(readOptions, column, keys);
+        }
+    }
+
+    private List<byte[]> multiGet(ReadOptions readOptions, ChainColumn column, List<byte[]> keys) {
+        List<ColumnFamilyHandle> columnHandles = Collections.nCopies(keys.size(), mapHandles.get(column));
+        try {
+            return db.multiGetAsList(readOptions, columnHandles, keys);
+        } catch (RocksDBException e) {
+            throw new IllegalStateException(e.getMessage(), e);
+        }
+    }
+
+    @Override
+    public void put(ChainColumn column, byte[] key, byte[] value) {
+        try {
+            db.put(mapHandles.get(column), key, value);
+        } catch (RocksDBException e) {
+            throw new IllegalStateException(e.getMessage(), e);
+        }
+    }
+
+    @Override
+    public void merge(ChainColumn column, byte[] key, byte[] value) {
+        try {
+            db.merge(mapHandles.get(column), key, value);
+        } catch (RocksDBException e) {
+            throw new IllegalStateException(e.getMessage(), e);
+        }
+    }
+
+    @Override
+    public void delete(ChainColumn column, byte[] key) {
+        try {
+            db.delete(mapHandles.get(column), key);
+        } catch (RocksDBException e) {
+            throw new IllegalStateException(e.getMessage(), e);
+        }
+    }
+
+    @Override
+    public KvBatch newBatch() {
+        return new RocksBatch();
+    }
+
+    @Override
+    public KvIterator newIterator(ChainColumn column, boolean prefixSameAsStart) {
+        ReadOptions readOptions = new ReadOptions().setPrefixSameAsStart(prefixSameAsStart);
+        return new RocksKvIterator(db.newIterator(mapHandles.get(column), readOptions), readOptions);
+    }
+
+    @Override
+    public KvSnapshot getSnapshot() {
+        return new RocksSnapshot();
+    }
+
+    @Override
+    public void checkpoint(String dir) throws IOException {
+        try (Checkpoint checkpoint = Checkpoint.create(db)) {
+            checkpoint.createCheckpoint(dir);
+        } catch (RocksDBException e) {
+            throw new IOException("制作链数据库快照失败:" + e.getMessage(), e);
+        }
+    }
+
+    @Override
+    public void catchUp() {
+        if (!secondary) {
+            return;
+        }
+        try {
+            db.tryCatchUpWithPrimary();
+        } catch (RocksDBException e) {
+            throw new IllegalStateException(e.getMessage(), e);
+        }
+    }
+
+    @Override
+    public void close() {
+        for (ColumnFamilyHandle handle : handles) {
+            handle.close();
+        }
+        handles.clear();
+        mapHandles.clear();
+        db.close();
+        releaseOptions();
+    }
+
+    private void releaseOptions() {
+        for (ColumnFamilyOptions options : columnOptions) {
+            options.close();
+        }
+        columnOptions.clear();
+        for (Filter filter : filters) {
+            filter.close();
+        }
+        filters.clear();
+        dbOptions.close();
+        amountOperator.close();
+        writeBufferManager.close();
+        blockCache.close();
+    }
+
+    private class RocksBatch implements KvBatch {
+        private WriteBatchWithIndex batch = new WriteBatchWithIndex(true);
+
+        @Override
+        public void put(ChainColumn column, byte[] key, byte[] value) {
+            try {
+                batch.put(mapHandles.get(column), key, value);
+            } catch (RocksDBException e) {
+                throw new IllegalStateException(e.getMessage(), e);
+            }
+        }
+
+        @Override
+        public void merge(ChainColumn column, byte[] key, byte[] value) {
+            try {
+                batch.merge(mapHandles.get(column), key, value);
+            } catch (RocksDBException e) {
+                throw new IllegalStateException(e.getMessage(), e);
+            }
+        }
+
+        @Override
+        public void delete(ChainColumn column, byte[] key) {
+            try {
+                batch.delete(mapHandles.get(column), key);
+            } catch (RocksDBException e) {
+                throw new IllegalStateException(e.getMessage(), e);
+            }
+        }
+
+        @Override
+        public byte[] get(ChainColumn column, byte[] key) {
+            try (ReadOptions readOptions = new ReadOptions()) {
+                return batch.getFromBatchAndDB(db, mapHandles.get(column), readOptions, key);
+            } catch (RocksDBException e) {
+                throw new IllegalStateException(e.getMessage(), e);
+            }
+        }
+
+        @Override
+        public void setSavePoint() {
+            batch.setSavePoint();
+        }
+
+        @Override
+        public void rollbackToSavePoint() {
+            try {
+                batch.rollbackToSavePoint();
+            } catch (RocksDBException e) {
+                throw new IllegalStateException(e.getMessage(), e);
+            }
+        }
+
+        @Override
+        public int count() {
+            return batch.count();
+        }
+
+        @Override
+        public void write(boolean sync) {
+            try (WriteOptions writeOptions = new WriteOptions().setSync(sync)) {
+                db.write(writeOptions, batch);
+            } catch (RocksDBException e) {
+                throw new IllegalStateException(e.getMessage(), e);
+            }
+        }
+
+        @Override
+        public void close() {
+            batch.close();
+        }
+    }
+
+    private class RocksSnapshot implements KvSnapshot {
+        private Snapshot snapshot = db.getSnapshot();
+        private ReadOptions readOptions = new ReadOptions().setSnapshot(snapshot).setFillCache(false);
+
+        @Override
+        public byte[] get(ChainColumn column, byte[] key) {
+            try {
+                return db.get(mapHandles.get(column), readOptions, key);
+            } catch (RocksDBException e) {
+                throw new IllegalStateException(e.getMessage(), e);
+            }
+        }
+
+        @Override
+        public List<byte[]> multiGet(ChainColumn column, List<byte[]> keys) {
+            return RocksKeyValueStore.this.multiGet(readOptions, column, keys);
+        }
+
+        @Override
+        public KvIterator newIterator(ChainColumn column) {
+            return new RocksKvIterator(db.newIterator(mapHandles.get(column), readOptions), null);
+        }
+
+        @Override
+        public void close() {
+            readOptions.close();
+            db.releaseSnapshot(snapshot);
+        }
+    }
+
+    private static class RocksKvIterator implements KvIterator {
+        private RocksIterator iterator;
+        private ReadOptions readOptions;//迭代器单独使用的读取参数,关闭时一并释放
+
+        RocksKvIterator(RocksIterator iterator, ReadOptions readOptions) {
+            this.iterator = iterator;
+            this.readOptions = readOptions;
+        }
+
+        @Override
+        public void seek(byte[] key) {
+            iterator.seek(key);
+        }
+
+        @Override
+        public void seekToFirst() {
+            iterator.seekToFirst();
+        }
+
+        @Override
+        public void seekToLast() {
+            iterator.seekToLast();
+        }
+
+        @Override
+        public boolean isValid() {
+            return iterator.isValid();
+        }
+
+        @Override
+        public void next() {
+            iterator.next();
+        }
+
+        @Override
+        public void prev() {
+            iterator.prev();
+        }
+
+        @Override
+        public byte[] key() {
+            return iterator.key();
+        }
+
+        @Override
+        public byte[] value() {
+            return iterator.value();
+        }
+
+        @Override
+        public void close() {
+            iterator.close();
+            if (readOptions != null) {
+                readOptions.close();
+            }
+        }
+    }
+}
@@ -0,0 +1,278 @@
+package org.talust.storage;
+
+import org.talust.common.tools.Configure;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * 区块存储按高度索引与遍历的测试
+ */
+public class BlockStorageTest extends StorageTestCase {
+    private BlockStorage blockStorage = BlockStorage.get();
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        blockStorage.init();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        blockStorage.close();
+        ChainDatabase.get().close();
+        super.tearDown();
+    }
+
+    public void testHeightKeyOrder() {
+        assertEquals(4, HeightKey.encode(9).length);
+        assertEquals(123456, HeightKey.decode(HeightKey.encode(123456)));
+        byte[] k9 = HeightKey.encode(9);
+        byte[] k10 = HeightKey.encode(10);
+        assertTrue((k9[3] & 0xFF) < (k10[3] & 0xFF));
+    }
+
+    public void testScanRange() throws Exception {
+        try (BlockCommit commit = ChainDatabase.get().newCommit()) {
+            for (int height = 1; height <= 200; height++) {
+                byte[] hash = ("hash" + height).getBytes();
+                blockStorage.put(commit, hash, ("block" + height).getBytes());
+                blockStorage.putHeightHash(commit, height, hash);
+            }
+            commit.commit();
+        }
+        int expect = 9;
+        try (BlockCursor cursor = blockStorage.scan(9, 150)) {
+            while (cursor.hasNext()) {
+                StoredBlock block = cursor.next();
+                assertEquals(expect, block.getHeight());
+                assertEquals("block" + expect, new String(block.getContent()));
+                expect++;
+            }
+        }
+        assertEquals(151, expect);
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        assertEquals(10, blockStorage.export(191, 300, out));
+    }
+
+    public void testCommittedTipNeverMovesBack() {
+        try (BlockCommit first = ChainDatabase.get().newCommit(); BlockCommit second = ChainDatabase.get().newCommit()) {
+            blockStorage.put(first, "first".getBytes(), "first block".getBytes());
+            blockStorage.put(second, "second".getBytes(), "second block".getBytes());
+            BlockLocation tip = blockStorage.getFileStore().tip();
+            second.commit();
+            first.commit();//先追加的区块后提交,不能使已提交的末尾位置后退
+            assertEquals(tip.getOffset(), blockStorage.committedTip().getOffset());
+        }
+        assertEquals("first block", new String(blockStorage.get("first".getBytes())));
+        assertEquals("second block", new String(blockStorage.get("second".getBytes())));
+    }
+
+    public void testRollbackResetsFileTip() {
+        for (int height = 0; height < 3; height++) {
+            try (BlockCommit commit = ChainDatabase.get().newCommit()) {
+                commit.recordUndo(height);
+                byte[] hash = ("hash" + height).getBytes();
+                blockStorage.put(commit, hash, ("block" + height).getBytes());
+                blockStorage.putHeader(commit, hash, ("head" + height).getBytes());
+                blockStorage.putHeightHash(commit, height, hash);
+                blockStorage.setNowBlockHash(commit, hash);
+                commit.commit();
+            }
+        }
+        long rolledOffset = BlockLocation.decode(ChainDatabase.get().get(ChainColumn.BLOCKS, "hash1".getBytes())).getOffset();
+        assertEquals(2, ChainStateStorage.get().rollbackTo(0));
+        assertEquals(rolledOffset, blockStorage.committedTip().getOffset());
+        assertEquals(rolledOffset, blockStorage.getFileStore().tip().getOffset());
+        assertNull(blockStorage.getStored("hash1".getBytes()));
+        assertNull(blockStorage.getHeader("hash2".getBytes()));
+        assertEquals("head0", new String(blockStorage.getHeader("hash0".getBytes())));
+        try (BlockCommit commit = ChainDatabase.get().newCommit()) {//新区块写在被回滚的区块处
+            blockStorage.put(commit, "fork1".getBytes(), "fork block".getBytes());
+            commit.commit();
+        }
+        assertEquals("fork block", new String(blockStorage.get("fork1".getBytes())));
+        assertEquals("block0", new String(blockStorage.get("hash0".getBytes())));
+    }
+
+    public void testRollbackAcrossSegmentKeepsSnapshot() throws Exception {
+        Configure.BLOCK_FILE_SIZE = 64;//每个区块文件只容纳少量区块
+        blockStorage.close();
+        blockStorage.init();
+        for (int height = 0; height < 6; height++) {
+            try (BlockCommit commit = ChainDatabase.get().newCommit()) {
+                commit.recordUndo(height);
+                byte[] hash = ("hash" + height).getBytes();
+                blockStorage.put(commit, hash, ("block-content-" + height + "-0123456789abcdefghij").getBytes());
+                blockStorage.putHeightHash(commit, height, hash);
+                blockStorage.setNowBlockHash(commit, hash);
+                commit.commit();
+            }
+        }
+        BlockLocation active = blockStorage.committedTip();
+        assertTrue(active.getFile() >= 2);
+        File snapshotDir = new File(dir, "snapshot");
+        ChainSnapshot.get().create(snapshotDir.getAbsolutePath());
+        List<byte[]> before = new ArrayList<>();
+        for (int idx = 0; idx < active.getFile(); idx++) {
+            before.add(Files.readAllBytes(new File(new File(snapshotDir, "block"), BlockFileStore.segmentName(idx)).toPath()));
+        }
+
+        assertEquals(5, ChainStateStorage.get().rollbackTo(0));//回滚跨越已封存的区块文件
+        BlockLocation tip = blockStorage.committedTip();
+        assertEquals(active.getFile() + 1, tip.getFile());
+        assertEquals(0, tip.getOffset());
+        assertEquals(tip.getFile(), blockStorage.getFileStore().tip().getFile());
+        try (BlockCommit commit = ChainDatabase.get().newCommit()) {
+            blockStorage.put(commit, "fork1".getBytes(), "fork block".getBytes());
+            commit.commit();
+        }
+        assertEquals(tip.getFile(), BlockLocation.decode(ChainDatabase.get().get(ChainColumn.BLOCKS, "fork1".getBytes())).getFile());
+        assertEquals("fork block", new String(blockStorage.get("fork1".getBytes())));
+        assertTrue(new String(blockStorage.get("hash0".getBytes())).startsWith("block-content-0"));
+        for (int idx = 0; idx < active.getFile(); idx++) {//快照中链接的区块文件未被改写
+            assertTrue(Arrays.equals(before.get(idx), Files.readAllBytes(new File(new File(snapshotDir, "block"), BlockFileStore.segmentName(idx)).toPath())));
+        }
+    }
+
+    public void testBlockFileRollAndTruncate() throws Exception {
+        File blockDir = new File(dir, "files");
+        BlockFileStore store = new BlockFileStore(blockDir.getAbsolutePath(), 64);
+        store.open(null);
+        BlockLocation first = store.append(new byte[60]);
+        BlockLocation second = store.append("second block".getBytes());
+        assertEquals(0, first.getFile());
+        assertEquals(1, second.getFile());
+        assertEquals("second block", new String(store.read(second)));
+        BlockLocation tip = store.tip();
+        store.append(new byte[100]);//未提交的数据
+        store.close();
+
+        store = new BlockFileStore(blockDir.getAbsolutePath(), 64);
+        store.open(tip);
+        assertEquals(tip.getOffset(), store.segment(tip.getFile()).length());
+        assertFalse(store.segment(2).exists());
+        assertEquals("second block", new String(store.read(BlockLocation.decode(second.encode()))));
+        store.close();
+    }
+
+    public void testBlockFileDirsAndArchive() throws Exception {
+        String[] dirs = {new File(dir, "disk0").getAbsolutePath(), new File(dir, "disk1").getAbsolutePath()};
+        String archiveDir = new File(dir, "archive").getAbsolutePath();
+        BlockFileStore store = new BlockFileStore(dirs, archiveDir, 64);
+        store.open(null);
+        BlockLocation[] locations = new BlockLocation[4];
+        for (int idx = 0; idx < locations.length; idx++) {
+            locations[idx] = store.append(("block" + idx + new String(new byte[50])).getBytes());
+        }
+        assertEquals(3, locations[3].getFile());
+        assertEquals(new File(dirs[0]), store.segment(0).getParentFile());
+        assertEquals(new File(dirs[1]), store.segment(1).getParentFile());
+        store.read(locations[0]);//已映射的文件移动后仍可读取
+        assertTrue(store.archive(0));
+        assertFalse(store.archive(3));//正在写入的文件不能归档
+        assertTrue(store.isArchived(0));
+        assertFalse(new File(dirs[0], BlockFileStore.segmentName(0)).exists());
+        assertTrue(new String(store.read(locations[0])).startsWith("block0"));
+        BlockLocation tip = store.tip();
+        store.close();
+
+        store = new BlockFileStore(dirs, archiveDir, 64);
+        store.open(tip);//重新扫描目录建立路由
+        for (int idx = 0; idx < locations.length; idx++) {
+            assertTrue(new String(store.read(locations[idx])).startsWith("block" + idx));
+        }
+        assertTrue(store.isArchived(0));
+        store.close();
+    }
+
+    public void testSnapshotImport() throws Exception {
+        try (BlockCommit commit = ChainDatabase.get().newCommit()) {
+            for (int height = 1; height <= 20; height++) {
+                byte[] hash = ("hash" + height).getBytes();
+                blockStorage.put(commit, hash, ("block" + height).getBytes());
+                blockStorage.putHeightHash(commit, height, hash);
+                blockStorage.setNowBlockHash(commit, hash);
+            }
+            commit.commit();
+        }
+        String snapshotDir = new File(dir, "snapshot").getAbsolutePath();
+        assertEquals(20, ChainSnapshot.get().create(snapshotDir).getIntValue("height"));
+        blockStorage.put("hash21".getBytes(), "block21".getBytes()).get();//快照之后写入的区块
+        blockStorage.close();
+        ChainDatabase.get().close();
+
+        Configure.DATA_CHAIN = new File(dir, "chain2").getAbsolutePath();
+        Configure.DATA_BLOCK = new File(dir, "block2").getAbsolutePath();
+        assertTrue(ChainSnapshot.get().importSnapshot(snapshotDir));
+        blockStorage.init();
+        assertEquals("hash20", new String(blockStorage.getNowBlockHash()));
+        assertEquals("block7", new String(blockStorage.get("hash7".getBytes())));
+        assertNull(blockStorage.get("hash21".getBytes()));
+        assertFalse(ChainSnapshot.get().importSnapshot(snapshotDir));
+    }
+
+    public void testPrune() throws Exception {
+        Configure.BLOCK_FILE_SIZE = 64;//每个区块文件只容纳少量区块
+        blockStorage.close();
+        blockStorage.init();
+        try (BlockCommit commit = ChainDatabase.get().newCommit()) {
+            for (int height = 1; height <= 30; height++) {
+                byte[] hash = ("hash" + height).getBytes();
+                blockStorage.put(commit, hash, ("block-content-" + height).getBytes());
+                blockStorage.putHeightHash(commit, height, hash);
+            }
+            commit.commit();
+        }
+        assertTrue(blockStorage.prune(30, 10) > 0);
+        int pruned = blockStorage.getPrunedHeight();
+        assertTrue(pruned > 0 && pruned <= 20);
+        assertNull(blockStorage.get(("hash" + pruned).getBytes()));
+        assertNotNull(blockStorage.getHashByHeight(pruned));
+        for (int height = 21; height <= 30; height++) {
+            assertEquals("block-content-" + height, new String(blockStorage.get(("hash" + height).getBytes())));
+        }
+        assertFalse(new File(Configure.DATA_BLOCK, BlockFileStore.segmentName(0)).exists());
+    }
+
+    public void testBlockCodec() {
+        BlockCodec codec = BlockCodec.get();
+        byte[] raw = "\u000b raw protostuff block".getBytes();
+        assertSame(raw, codec.decode(raw));//未编码的区块原样返回
+        byte[][] samples = new byte[500][];
+        for (int idx = 0; idx < samples.length; idx++) {
+            samples[idx] = ("\u000b height " + idx + " signer 03a1b2c3d4e5f60718293a4b5c6d7e8f address 00112233445566778899aabbccddeeff0011 amount " + idx * 7).getBytes();
+        }
+        byte[] plain = codec.encodeForStore(samples[0]);
+        assertEquals(BlockCodec.ZSTD, plain[1]);
+        codec.train(samples);
+        byte[] encoded = codec.encodeForStore(samples[42]);
+        assertEquals(BlockCodec.ZSTD_DICT, encoded[1]);
+        assertEquals(new String(samples[42]), new String(codec.decode(encoded)));
+        assertEquals(new String(samples[42]), new String(codec.decode(codec.encode(samples[42]))));
+        codec.train(samples);//更换字典后旧字典编码的区块仍可解码
+        assertEquals(new String(samples[42]), new String(codec.decode(encoded)));
+        assertEquals(new String(samples[7]), new String(codec.decode(codec.encodeForStore(samples[7]))));
+    }
+
+    public void testBlockCodecRejectsBadFrame() {
+        BlockCodec codec = BlockCodec.get();
+        try {
+            codec.decode(new byte[]{BlockCodec.MAGIC, BlockCodec.ZSTD, 1, 2, 3, 4, 5, 6});
+            fail("无法识别的压缩内容应拒绝");
+        } catch (BlockDecodeException e) {
+        }
+        byte[] large = codec.encode(new byte[4096]);
+        Configure.MAX_FRAME_SIZE = 1024;//测试结束后恢复
+        try {
+            codec.decode(large);
+            fail("声明的解压长度超过限制应拒绝");
+        } catch (BlockDecodeException e) {
+        }
+    }
+}
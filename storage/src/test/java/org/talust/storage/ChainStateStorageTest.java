@@ -0,0 +1,66 @@
+package org.talust.storage;
+
+import org.talust.common.tools.CacheManager;
+
+/**
+ * 链状态按撤销记录回滚的测试
+ */
+public class ChainStateStorageTest extends StorageTestCase {
+    private ChainDatabase chainDatabase = ChainDatabase.get();
+    private UtxoCache utxoCache = UtxoCache.get();
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        chainDatabase.init();
+        utxoCache.discard();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        utxoCache.discard();
+        chainDatabase.close();
+        super.tearDown();
+    }
+
+    public void testRollbackTo() {
+        ChainStateStorage stateStorage = ChainStateStorage.get();
+        BlockStorage blockStorage = BlockStorage.get();
+        byte[] address = new byte[AddressUtxoKey.PREFIX_LENGTH];
+        address[0] = 3;
+        for (int height = 0; height < 3; height++) {
+            try (BlockCommit commit = chainDatabase.newCommit()) {
+                commit.recordUndo(height);
+                byte[] hash = ("hash" + height).getBytes();
+                blockStorage.putHeightHash(commit, height, hash);
+                blockStorage.setNowBlockHash(commit, hash);
+                if (height > 0) {
+                    utxoCache.spend(commit, 300 + height - 1, 0, address);
+                }
+                utxoCache.add(commit, 300 + height, 0, address, ("out" + height).getBytes());
+                stateStorage.addAddressAmount(commit, address, 100);
+                commit.commit();
+            }
+        }
+        assertEquals(300, stateStorage.getAddressAmount(address));
+        assertNull(utxoCache.get(300, 0));
+
+        CacheManager.get().setCurrentBlockHeight(2);
+        assertEquals(2, stateStorage.rollbackTo(0));
+        assertEquals(0, CacheManager.get().getCurrentBlockHeight());
+        assertEquals(100, stateStorage.getAddressAmount(address));
+        assertEquals("out0", new String(utxoCache.get(300, 0)));
+        assertNull(utxoCache.get(302, 0));
+        assertNull(blockStorage.getHashByHeight(1));
+        assertEquals("hash0", new String(blockStorage.getNowBlockHash()));
+        int count = 0;
+        try (AddressUtxoCursor cursor = stateStorage.addressUtxos(address)) {
+            while (cursor.hasNext()) {
+                assertEquals(300, cursor.next().getTranNumber());
+                count++;
+            }
+        }
+        assertEquals(1, count);
+        assertEquals(0, stateStorage.rollbackTo(0));
+    }
+}
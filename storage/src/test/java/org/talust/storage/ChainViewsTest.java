@@ -0,0 +1,52 @@
+package org.talust.storage;
+
+/**
+ * 链数据视图发布与读取的测试
+ */
+public class ChainViewsTest extends StorageTestCase {
+    private ChainDatabase chainDatabase = ChainDatabase.get();
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        chainDatabase.init();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        chainDatabase.close();
+        super.tearDown();
+    }
+
+    public void testChainView() {
+        ChainStateStorage stateStorage = ChainStateStorage.get();
+        ChainViews chainViews = ChainViews.get();
+        byte[] address = "view-address".getBytes();
+        for (int height = 0; height < 2; height++) {
+            try (BlockCommit commit = chainDatabase.newCommit()) {
+                stateStorage.addAddressAmount(commit, address, 100);
+                commit.commit();
+            }
+            chainViews.publish(height, ("hash" + height).getBytes());
+        }
+        try (ChainView view = chainViews.at(0)) {
+            assertEquals(100, view.getAddressAmount(address));
+            try (BlockCommit commit = chainDatabase.newCommit()) {//视图不受之后写入的影响
+                stateStorage.addAddressAmount(commit, address, 100);
+                commit.commit();
+            }
+            assertEquals(100, view.getAddressAmount(address));
+        }
+        try (ChainView view = chainViews.latest()) {
+            assertEquals(1, view.getHeight());
+            assertEquals(200, view.getAddressAmount(address));
+        }
+        ChainView closed = chainViews.latest();
+        closed.close();
+        closed.close();//重复关闭不释放已发布视图的快照
+        try (ChainView view = chainViews.latest()) {
+            assertEquals(200, view.getAddressAmount(address));
+        }
+        assertNull(chainViews.at(5));
+    }
+}
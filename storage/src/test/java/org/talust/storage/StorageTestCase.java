@@ -0,0 +1,49 @@
+package org.talust.storage;
+
+import junit.framework.TestCase;
+import org.talust.common.tools.Configure;
+
+import java.io.File;
+import java.nio.file.Files;
+
+/**
+ * 存储测试的基类,每个测试使用单独的临时目录存放链数据库与区块文件,
+ * 测试中修改的全局配置在结束后恢复,不影响之后的测试
+ */
+public abstract class StorageTestCase extends TestCase {
+    protected File dir;
+    private String dataChain;
+    private String dataBlock;
+    private long blockFileSize;
+    private int maxFrameSize;
+
+    @Override
+    protected void setUp() throws Exception {
+        dataChain = Configure.DATA_CHAIN;
+        dataBlock = Configure.DATA_BLOCK;
+        blockFileSize = Configure.BLOCK_FILE_SIZE;
+        maxFrameSize = Configure.MAX_FRAME_SIZE;
+        dir = Files.createTempDirectory("talust-" + getClass().getSimpleName()).toFile();
+        Configure.DATA_CHAIN = new File(dir, "chain").getAbsolutePath();
+        Configure.DATA_BLOCK = new File(dir, "block").getAbsolutePath();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        Configure.DATA_CHAIN = dataChain;
+        Configure.DATA_BLOCK = dataBlock;
+        Configure.BLOCK_FILE_SIZE = blockFileSize;
+        Configure.MAX_FRAME_SIZE = maxFrameSize;
+        deleteDir(dir);
+    }
+
+    protected static void deleteDir(File file) {
+        File[] files = file.listFiles();
+        if (files != null) {
+            for (File f : files) {
+                deleteDir(f);
+            }
+        }
+        file.delete();
+    }
+}
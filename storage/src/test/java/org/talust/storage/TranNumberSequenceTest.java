@@ -0,0 +1,50 @@
+package org.talust.storage;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 交易号分段预留的测试
+ */
+public class TranNumberSequenceTest extends StorageTestCase {
+    private ChainDatabase chainDatabase = ChainDatabase.get();
+    private byte[] key = "testTranNumberLimit".getBytes();
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        chainDatabase.init();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        chainDatabase.close();
+        super.tearDown();
+    }
+
+    public void testNoRepeatAfterRestart() throws Exception {
+        TranNumberSequence sequence = new TranNumberSequence(chainDatabase, StorageWriter.get(), key, 10);
+        sequence.init(101);
+        Set<Long> numbers = ConcurrentHashMap.newKeySet();
+        Thread[] threads = new Thread[4];
+        for (int i = 0; i < threads.length; i++) {
+            threads[i] = new Thread(() -> {
+                for (int j = 0; j < 250; j++) {
+                    assertTrue(numbers.add(sequence.next()));
+                }
+            });
+            threads[i].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertEquals(1000, numbers.size());
+        long max = numbers.stream().mapToLong(Long::longValue).max().getAsLong();
+        assertTrue(max < sequence.getLimit());
+
+        //模拟重启,从落盘的上限继续分配
+        TranNumberSequence restarted = new TranNumberSequence(chainDatabase, StorageWriter.get(), key, 10);
+        restarted.init(101);
+        assertTrue(restarted.next() > max);
+    }
+}
@@ -0,0 +1,100 @@
+package org.talust.storage;
+
+import io.protostuff.Tag;
+import org.talust.common.crypto.Sha256Hash;
+import org.talust.common.model.Message;
+import org.talust.common.model.MessageType;
+import org.talust.common.tools.SerializationUtil;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 交易索引的测试,区块与交易按与block模块中相同的字段号定义
+ */
+public class TransactionStorageTest extends StorageTestCase {
+    private BlockStorage blockStorage = BlockStorage.get();
+    private TransactionStorage transactionStorage = TransactionStorage.get();
+
+    static class Head {
+        @Tag(1)
+        int height;
+        @Tag(2)
+        byte[] prevBlock;
+    }
+
+    static class Body {
+        @Tag(1)
+        List<byte[]> data = new ArrayList<>();
+    }
+
+    static class Block {
+        @Tag(1)
+        Head head;
+        @Tag(2)
+        Body body;
+    }
+
+    static class Tran {
+        @Tag(1)
+        int tranType;
+        @Tag(2)
+        long tranNumber;
+    }
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        blockStorage.init();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        blockStorage.close();
+        ChainDatabase.get().close();
+        super.tearDown();
+    }
+
+    public void testIndexAndSlice() throws Exception {
+        Block block = new Block();
+        block.head = new Head();
+        block.head.height = 7;
+        block.head.prevBlock = new byte[32];
+        block.body = new Body();
+        List<byte[]> contents = new ArrayList<>();
+        for (int idx = 0; idx < 3; idx++) {
+            Tran tran = new Tran();
+            tran.tranType = 1;
+            tran.tranNumber = 1000 + idx;
+            Message message = new Message();
+            message.setType(MessageType.TRANSACTION.getType());
+            message.setContent(SerializationUtil.serializer(tran));
+            message.setTime(123);
+            contents.add(message.getContent());
+            block.body.data.add(SerializationUtil.serializer(message));
+        }
+        Tran other = new Tran();
+        other.tranNumber = 2000;
+        Message otherMessage = new Message();
+        otherMessage.setType(MessageType.BLOCK_ARRIVED.getType());//其他类型的内容不建立交易号索引
+        otherMessage.setContent(SerializationUtil.serializer(other));
+        block.body.data.add(SerializationUtil.serializer(otherMessage));
+        byte[] blockBytes = SerializationUtil.serializer(block);
+        byte[] blockHash = Sha256Hash.of(blockBytes).getBytes();
+        blockStorage.put(blockHash, blockBytes).get();
+        blockStorage.putHeightHash(7, blockHash).get();
+
+        transactionStorage.index(7, ByteBuffer.wrap(blockBytes));
+        for (int idx = 0; idx < 3; idx++) {
+            byte[] txHash = Sha256Hash.of(contents.get(idx)).getBytes();
+            assertEquals(ByteBuffer.wrap(txHash), ByteBuffer.wrap(transactionStorage.getTxHash(1000 + idx)));
+            byte[] datum = transactionStorage.getTransaction(txHash);
+            Message message = SerializationUtil.deserializer(datum, Message.class);
+            Tran tran = SerializationUtil.deserializer(message.getContent(), Tran.class);
+            assertEquals(1000 + idx, tran.tranNumber);
+        }
+        assertNull(transactionStorage.getTxHash(2000));
+        assertEquals(7, transactionStorage.getIndexedHeight());
+    }
+}
@@ -0,0 +1,119 @@
+package org.talust.storage;
+
+/**
+ * 交易输出缓存的写回与余额合并的测试
+ */
+public class UtxoCacheTest extends StorageTestCase {
+    private ChainDatabase chainDatabase = ChainDatabase.get();
+    private UtxoCache utxoCache = UtxoCache.get();
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        chainDatabase.init();
+        utxoCache.discard();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        utxoCache.discard();
+        chainDatabase.close();
+        super.tearDown();
+    }
+
+    public void testFlushOncePerBlock() throws Exception {
+        byte[] address = new byte[AddressUtxoKey.PREFIX_LENGTH];
+        address[0] = 1;
+        ChainStateStorage.get().put(ChainStateStorage.utxoKey(100, 0), "old".getBytes()).get();
+        try (BlockCommit commit = chainDatabase.newCommit()) {
+            utxoCache.add(commit, 101, 0, address, "a".getBytes());
+            utxoCache.add(commit, 101, 1, address, "b".getBytes());
+            assertEquals("old", new String(utxoCache.spend(commit, 100, 0, address)));
+            assertEquals("a", new String(utxoCache.spend(commit, 101, 0, address)));//本次提交中产生又被花费
+            assertNull(utxoCache.get(commit, 100, 0));
+            assertEquals("old", new String(utxoCache.get(100, 0)));//提交前其他线程看不到
+            commit.commit();
+            assertEquals(4, commit.count());//花费一项,新增一项,各自连同地址索引
+        }
+        assertEquals("b", new String(utxoCache.get(101, 1)));
+        utxoCache.discard();
+        assertNull(chainDatabase.get(ChainColumn.UTXO, ChainStateStorage.utxoKey(100, 0)));
+        assertNull(chainDatabase.get(ChainColumn.UTXO, ChainStateStorage.utxoKey(101, 0)));
+        long hits = utxoCache.getHits();
+        long misses = utxoCache.getMisses();
+        assertEquals("b", new String(utxoCache.get(101, 1)));
+        assertEquals("b", new String(utxoCache.get(101, 1)));
+        assertEquals(misses + 1, utxoCache.getMisses());
+        assertEquals(hits + 1, utxoCache.getHits());
+    }
+
+    public void testCommitIsolation() {
+        byte[] address = new byte[AddressUtxoKey.PREFIX_LENGTH];
+        try (BlockCommit first = chainDatabase.newCommit(); BlockCommit second = chainDatabase.newCommit()) {
+            utxoCache.add(first, 400, 0, address, "first".getBytes());
+            utxoCache.add(second, 401, 0, address, "second".getBytes());
+            assertNull(utxoCache.get(second, 400, 0));//其他提交中未写入的修改不可见
+            second.commit();
+            assertEquals(2, second.count());
+        }//第一个提交未写入,其修改随之丢弃
+        assertNull(utxoCache.get(400, 0));
+        assertEquals("second", new String(utxoCache.get(401, 0)));
+    }
+
+    public void testReAddEvictedOutput() {
+        byte[] address = new byte[AddressUtxoKey.PREFIX_LENGTH];
+        try (BlockCommit commit = chainDatabase.newCommit()) {
+            utxoCache.add(commit, 500, 0, address, "disk".getBytes());
+            commit.commit();
+        }
+        utxoCache.discard();//缓存中已淘汰,只存在于磁盘
+        try (BlockCommit commit = chainDatabase.newCommit()) {
+            utxoCache.add(commit, 500, 0, address, "again".getBytes());
+            assertEquals("again", new String(utxoCache.spend(commit, 500, 0, address)));
+            commit.commit();
+        }
+        utxoCache.discard();
+        assertNull(utxoCache.get(500, 0));//磁盘上的交易输出随花费删除
+    }
+
+    public void testAddressPrefixScan() {
+        byte[] address = new byte[AddressUtxoKey.PREFIX_LENGTH];
+        byte[] other = new byte[AddressUtxoKey.PREFIX_LENGTH];
+        address[0] = 1;
+        other[0] = 2;
+        try (BlockCommit commit = chainDatabase.newCommit()) {
+            utxoCache.add(commit, 200, 0, address, "x".getBytes());
+            utxoCache.add(commit, 200, 1, other, "y".getBytes());
+            utxoCache.add(commit, 201, 0, address, "z".getBytes());
+            commit.commit();
+        }
+        try (BlockCommit commit = chainDatabase.newCommit()) {
+            utxoCache.spend(commit, 200, 0, address);
+            commit.commit();
+        }
+        int count = 0;
+        try (AddressUtxoCursor cursor = ChainStateStorage.get().addressUtxos(address)) {
+            while (cursor.hasNext()) {
+                AddressUtxo utxo = cursor.next();
+                assertEquals(201, utxo.getTranNumber());
+                assertEquals(0, utxo.getItem());
+                assertEquals("z", new String(utxo.getContent()));
+                count++;
+            }
+        }
+        assertEquals(1, count);
+    }
+
+    public void testAddressAmountMerge() throws Exception {
+        ChainStateStorage stateStorage = ChainStateStorage.get();
+        byte[] address = "address".getBytes();
+        assertEquals(0, stateStorage.getAddressAmount(address));
+        stateStorage.addAddressAmount(address, 500).get();
+        try (BlockCommit commit = chainDatabase.newCommit()) {
+            stateStorage.addAddressAmount(commit, address, 300);
+            stateStorage.addAddressAmount(commit, address, -650);
+            commit.commit();
+        }
+        assertEquals(150, stateStorage.getAddressAmount(address));
+    }
+}
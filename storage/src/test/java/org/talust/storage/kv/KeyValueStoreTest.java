@@ -0,0 +1,131 @@
+package org.talust.storage.kv;
+
+import org.talust.storage.AddressUtxoKey;
+import org.talust.storage.ChainColumn;
+import org.talust.storage.StorageTestCase;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * 两种存储引擎的读写、合并、批次、迭代与快照行为一致
+ */
+public class KeyValueStoreTest extends StorageTestCase {
+    public void testMemoryStore() {
+        KeyValueStore store = new MemoryKeyValueStore();
+        try {
+            verify(store);
+        } finally {
+            store.close();
+        }
+    }
+
+    public void testRocksStore() throws Exception {
+        KeyValueStore store = new RocksKeyValueStore(dir.getAbsolutePath());
+        try {
+            verify(store);
+        } finally {
+            store.close();
+        }
+    }
+
+    public void testRocksSecondary() throws Exception {
+        String chain = new File(dir, "chain").getAbsolutePath();
+        KeyValueStore primary = new RocksKeyValueStore(chain);
+        KeyValueStore secondary = null;
+        try {
+            primary.put(ChainColumn.META, "a".getBytes(), "1".getBytes());
+            secondary = new RocksKeyValueStore(chain, new File(dir, "secondary").getAbsolutePath());
+            assertEquals("1", new String(secondary.get(ChainColumn.META, "a".getBytes())));
+            primary.put(ChainColumn.META, "b".getBytes(), "2".getBytes());
+            assertNull(secondary.get(ChainColumn.META, "b".getBytes()));//追赶之前看不到主实例的新数据
+            secondary.catchUp();
+            assertEquals("2", new String(secondary.get(ChainColumn.META, "b".getBytes())));
+        } finally {
+            if (secondary != null) {
+                secondary.close();
+            }
+            primary.close();
+        }
+    }
+
+    private void verify(KeyValueStore store) {
+        store.put(ChainColumn.META, "a".getBytes(), "1".getBytes());
+        store.merge(ChainColumn.BALANCES, "addr".getBytes(), amount(500));
+        store.merge(ChainColumn.BALANCES, "addr".getBytes(), amount(-200));
+        assertEquals(300, decode(store.get(ChainColumn.BALANCES, "addr".getBytes())));
+
+        try (KvBatch batch = store.newBatch()) {
+            batch.put(ChainColumn.META, "b".getBytes(), "2".getBytes());
+            batch.delete(ChainColumn.META, "a".getBytes());
+            batch.merge(ChainColumn.BALANCES, "addr".getBytes(), amount(50));
+            assertNull(batch.get(ChainColumn.META, "a".getBytes()));
+            assertEquals(350, decode(batch.get(ChainColumn.BALANCES, "addr".getBytes())));
+            batch.setSavePoint();
+            batch.put(ChainColumn.META, "c".getBytes(), "3".getBytes());
+            batch.rollbackToSavePoint();
+            assertNull(batch.get(ChainColumn.META, "c".getBytes()));
+            assertEquals("1", new String(store.get(ChainColumn.META, "a".getBytes())));//写入前不可见
+            batch.write(false);
+        }
+        assertNull(store.get(ChainColumn.META, "a".getBytes()));
+        assertNull(store.get(ChainColumn.META, "c".getBytes()));
+        assertEquals(350, decode(store.get(ChainColumn.BALANCES, "addr".getBytes())));
+
+        List<byte[]> values = store.multiGet(ChainColumn.META, Arrays.asList("b".getBytes(), "x".getBytes()));
+        assertEquals("2", new String(values.get(0)));
+        assertNull(values.get(1));
+
+        byte[] first = new byte[AddressUtxoKey.PREFIX_LENGTH];
+        byte[] second = new byte[AddressUtxoKey.PREFIX_LENGTH];
+        first[0] = (byte) 0x7F;
+        second[0] = (byte) 0x80;//按无符号字节序排在后面
+        store.put(ChainColumn.ADDRESS_UTXO, AddressUtxoKey.encode(first, 1, 0), "x".getBytes());
+        store.put(ChainColumn.ADDRESS_UTXO, AddressUtxoKey.encode(first, 2, 0), "y".getBytes());
+        store.put(ChainColumn.ADDRESS_UTXO, AddressUtxoKey.encode(second, 1, 0), "z".getBytes());
+        int count = 0;
+        try (KvIterator iterator = store.newIterator(ChainColumn.ADDRESS_UTXO, true)) {
+            for (iterator.seek(first); iterator.isValid(); iterator.next()) {
+                count++;
+            }
+        }
+        assertEquals(2, count);
+        try (KvIterator iterator = store.newIterator(ChainColumn.ADDRESS_UTXO, false)) {
+            iterator.seekToLast();
+            assertEquals("z", new String(iterator.value()));
+            iterator.prev();
+            assertEquals("y", new String(iterator.value()));
+        }
+
+        try (KvSnapshot snapshot = store.getSnapshot()) {
+            store.put(ChainColumn.META, "d".getBytes(), "4".getBytes());
+            store.put(ChainColumn.META, "a".getBytes(), "5".getBytes());
+            store.delete(ChainColumn.META, "b".getBytes());
+            store.merge(ChainColumn.BALANCES, "addr".getBytes(), amount(100));
+            assertNull(snapshot.get(ChainColumn.META, "d".getBytes()));
+            assertNull(snapshot.get(ChainColumn.META, "a".getBytes()));
+            assertEquals("2", new String(snapshot.get(ChainColumn.META, "b".getBytes())));
+            assertEquals(350, decode(snapshot.get(ChainColumn.BALANCES, "addr".getBytes())));
+            StringBuilder keys = new StringBuilder();
+            try (KvIterator iterator = snapshot.newIterator(ChainColumn.META)) {
+                for (iterator.seekToFirst(); iterator.isValid(); iterator.next()) {
+                    keys.append(new String(iterator.key()));
+                }
+            }
+            assertEquals("b", keys.toString());//之后新增的键不可见,删除的键仍可见
+            assertNull(store.get(ChainColumn.META, "b".getBytes()));
+        }
+        assertEquals("4", new String(store.get(ChainColumn.META, "d".getBytes())));
+    }
+
+    private static byte[] amount(long value) {
+        return ByteBuffer.allocate(8).order(ByteOrder.LITTLE_ENDIAN).putLong(value).array();
+    }
+
+    private static long decode(byte[] bytes) {
+        return ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN).getLong();
+    }
+}